@@ -0,0 +1,63 @@
+package com.github.smkjke.banking.system;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded latency of the H2 dao operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountDaoBenchmark {
+
+    @Param({"1000"})
+    public int accounts;
+
+    private BenchmarkDatabase database;
+
+    @Setup
+    public void setUp() {
+        database = new BenchmarkDatabase(accounts);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    private Account randomAccount() {
+        return database.accounts.get(ThreadLocalRandom.current().nextInt(accounts));
+    }
+
+    @Benchmark
+    public Account get() {
+        return database.dao.get(randomAccount().getCardNumber());
+    }
+
+    @Benchmark
+    public void update() {
+        database.dao.update(randomAccount().getId(), 1);
+    }
+
+    @Benchmark
+    public TransferStatus transfer() {
+        return database.dao.transfer(randomAccount(), randomAccount(), 1);
+    }
+}
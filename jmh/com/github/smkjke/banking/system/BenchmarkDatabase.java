@@ -0,0 +1,35 @@
+package com.github.smkjke.banking.system;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throwaway H2 database filled with accounts, deleted on close.
+ */
+class BenchmarkDatabase {
+
+    static final int INITIAL_BALANCE = 1_000_000_000;
+
+    final AccountDaoImpl dao;
+    final List<Account> accounts = new ArrayList<>();
+    private final String fileName;
+
+    BenchmarkDatabase(int accounts) {
+        fileName = "jmh_" + System.nanoTime();
+        dao = new AccountDaoImpl(fileName);
+        for (int i = 0; i < accounts; i++) {
+            Account account = new Account(i);
+            dao.create(account);
+            dao.update(account.getId(), INITIAL_BALANCE);
+            this.accounts.add(account);
+        }
+    }
+
+    void close() {
+        dao.dropTable();
+        dao.close();
+        new File("/tmp/task_card/" + fileName + ".mv.db").delete();
+        new File("/tmp/task_card/" + fileName + ".trace.db").delete();
+    }
+}
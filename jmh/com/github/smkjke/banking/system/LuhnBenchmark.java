@@ -0,0 +1,76 @@
+package com.github.smkjke.banking.system;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Card number checks and generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuhnBenchmark {
+
+    private static final int CARDS = 1024;
+
+    private final String[] cards = new String[CARDS];
+    private final long[] longCards = new long[CARDS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < CARDS; i++) {
+            cards[i] = new Account(i).getCardNumber();
+            longCards[i] = CardNumbers.parse(cards[i]);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (CARDS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public boolean isValidString() {
+        return LuhnAlgo.isValid(cards[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean isValidLong() {
+        return LuhnAlgo.isValid(longCards[nextIndex()]);
+    }
+
+    @Benchmark
+    public int getChecksumString() {
+        return LuhnAlgo.getChecksum(cards[nextIndex()].substring(0, 15));
+    }
+
+    @Benchmark
+    public int getChecksumLong() {
+        return LuhnAlgo.getChecksum(longCards[nextIndex()] / 10);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean[] validateBulk() {
+        return LuhnAlgo.validate(longCards);
+    }
+
+    @Benchmark
+    public Account generateCard() {
+        return new Account(0);
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.smkjke.banking.system;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BankSystem.doTransfer under contention.
+ * "hot" moves money back and forth between the same two cards, "spread" picks a random pair every time,
+ * "merchant" pays into one card from random cards.
+ * "h2" locks the cards before a transfer, "h2-optimistic" uses {@link TransferStrategy#OPTIMISTIC}
+ * and "h2-procedure" {@link TransferStrategy#STORED_PROCEDURE}. "h2-clearing" submits transfers
+ * asynchronously to a {@link ClearingHouse} and waits for their window to settle. "h2-split" locks like "h2"
+ * but the first card has its balance split into sub-balances, see {@link AccountDao#splitBalance(String, int)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    private static final int CLEARING_MAX_TRANSFERS = 256;
+    private static final long CLEARING_WINDOW_MS = 1;
+    private static final int SPLIT_SLOTS = 16;
+
+    @Param({"hot", "spread", "merchant"})
+    public String pattern;
+
+    @Param({"h2", "h2-optimistic", "h2-procedure", "h2-clearing", "h2-split", "memory"})
+    public String engine;
+
+    @Param({"1000"})
+    public int accounts;
+
+    private BenchmarkDatabase database;
+    private BankSystem bankSystem;
+    private String[] cards;
+
+    @Setup
+    public void setUp() {
+        AccountDao dao;
+        if (engine.startsWith("h2")) {
+            database = new BenchmarkDatabase(accounts);
+            database.dao.setTransferStrategy(strategy());
+            dao = database.dao;
+            cards = database.accounts.stream().map(Account::getCardNumber).toArray(String[]::new);
+        } else {
+            dao = new InMemoryAccountDao();
+            cards = new String[accounts];
+            for (int i = 0; i < accounts; i++) {
+                Account account = new Account(i);
+                dao.create(account);
+                dao.update(account.getId(), BenchmarkDatabase.INITIAL_BALANCE);
+                cards[i] = account.getCardNumber();
+            }
+        }
+        bankSystem = new BankSystem(dao);
+        if ("h2-split".equals(engine)) {
+            bankSystem.splitBalance(cards[0], SPLIT_SLOTS);
+        }
+        if (clearing()) {
+            bankSystem.enableClearing(CLEARING_MAX_TRANSFERS, CLEARING_WINDOW_MS);
+        }
+    }
+
+    private boolean clearing() {
+        return "h2-clearing".equals(engine);
+    }
+
+    private TransferStrategy strategy() {
+        switch (engine) {
+            case "h2-optimistic":
+                return TransferStrategy.OPTIMISTIC;
+            case "h2-procedure":
+                return TransferStrategy.STORED_PROCEDURE;
+            default:
+                return TransferStrategy.PESSIMISTIC;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        bankSystem.disableClearing();
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    private TransferStatus transfer() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int from;
+        final int to;
+        if ("hot".equals(pattern)) {
+            from = random.nextInt(2);
+            to = 1 - from;
+        } else if ("merchant".equals(pattern)) {
+            from = 1 + random.nextInt(cards.length - 1);
+            to = 0;
+        } else {
+            from = random.nextInt(cards.length);
+            to = (from + 1 + random.nextInt(cards.length - 1)) % cards.length;
+        }
+        if (clearing()) {
+            return bankSystem.doTransferAsync(cards[from], cards[to], 1).join();
+        }
+        return bankSystem.doTransfer(cards[from], cards[to], 1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransferStatus oneThread() {
+        return transfer();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TransferStatus fourThreads() {
+        return transfer();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public TransferStatus sixteenThreads() {
+        return transfer();
+    }
+}
@@ -1,34 +1,188 @@
 package com.github.smkjke.banking;
 
 import com.github.smkjke.banking.manager.InputManager;
+import com.github.smkjke.banking.manager.ScriptRunner;
+import com.github.smkjke.banking.system.AccountDaoImpl;
+import com.github.smkjke.banking.system.AdmissionControl;
 import com.github.smkjke.banking.system.BankSystem;
+import com.github.smkjke.banking.system.CachingAccountDao;
+import com.github.smkjke.banking.system.InMemoryAccountDao;
+import com.github.smkjke.banking.system.Metrics;
+import com.github.smkjke.banking.system.RecordingMetrics;
+import com.github.smkjke.banking.system.ShardedAccountDao;
+import com.github.smkjke.banking.system.StorageProfile;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
 import java.util.Scanner;
+import java.util.Set;
 
 
 public class Main {
 
+    // settings of the database, a journal keeps the accounts in memory instead
+    private static final Set<String> DATABASE_OPTIONS = new HashSet<>(Arrays.asList("-fileName", "-shards",
+            "-lockTimeout", "-config", "-profile", "-cacheSize", "-writeDelay", "-server", "-warmUp"));
+
     InputManager inputManager;
     BankSystem bankingSystem;
 
 
     public Main(String fileName) {
+        this(new BankSystem(fileName));
+    }
+
+    public Main(BankSystem bankingSystem) {
         Scanner scanner = new Scanner(System.in);
-        bankingSystem = new BankSystem(fileName);
+        this.bankingSystem = bankingSystem;
         inputManager = new InputManager(scanner);
     }
 
     public static void main(String[] args) {
             String fileName = "default";
-            for (int i = 0; i < args.length; i += 2) {
-                if (i + 1 < args.length) {
+            String journal = null;
+            Metrics metrics = Metrics.NOOP;
+            String script = null;
+            int threads = 1;
+            int shards = 1;
+            long lockTimeout = -1;
+            String admission = null;
+            String config = null;
+            // storage settings given as arguments win over the config file
+            Properties storage = new Properties();
+            String databaseOption = null;
+            for (int i = 0; i < args.length; i++) {
+                if (DATABASE_OPTIONS.contains(args[i])) {
+                    databaseOption = args[i];
+                }
+                if ("-metrics".equals(args[i])) {
+                    metrics = new RecordingMetrics();
+                } else if ("-warmUp".equals(args[i])) {
+                    storage.setProperty("warmUp", "true");
+                } else if (i + 1 < args.length) {
                     if ("-fileName".equals(args[i])) {
-                        fileName = args[i + 1];
+                        fileName = args[++i];
+                    } else if ("-journal".equals(args[i])) {
+                        journal = args[++i];
+                    } else if ("-script".equals(args[i])) {
+                        script = args[++i];
+                    } else if ("-threads".equals(args[i])) {
+                        threads = Integer.parseInt(args[++i]);
+                    } else if ("-shards".equals(args[i])) {
+                        shards = Integer.parseInt(args[++i]);
+                    } else if ("-lockTimeout".equals(args[i])) {
+                        lockTimeout = Long.parseLong(args[++i]);
+                    } else if ("-admission".equals(args[i])) {
+                        admission = args[++i];
+                    } else if ("-config".equals(args[i])) {
+                        config = args[++i];
+                    } else if ("-profile".equals(args[i])) {
+                        storage.setProperty("profile", args[++i]);
+                    } else if ("-cacheSize".equals(args[i])) {
+                        storage.setProperty("cacheSize", args[++i]);
+                    } else if ("-writeDelay".equals(args[i])) {
+                        storage.setProperty("writeDelay", args[++i]);
+                    } else if ("-server".equals(args[i])) {
+                        // host:port, switches to the server profile
+                        String[] address = args[++i].split(":");
+                        storage.setProperty("profile", "server");
+                        storage.setProperty("host", address[0]);
+                        if (address.length > 1) {
+                            storage.setProperty("port", address[1]);
+                        }
                     }
                 }
             }
-        Main application = new Main(fileName);
-        application.start();
+        if (journal != null && databaseOption != null) {
+            throw new IllegalArgumentException("-journal keeps the accounts in memory, " + databaseOption
+                    + " only applies to a database");
+        }
+        Properties properties = config == null ? new Properties() : StorageProfile.load(Paths.get(config));
+        properties.putAll(storage);
+        StorageProfile profile = StorageProfile.fromProperties(properties);
+        // with a journal accounts are kept in memory and restored from the journal
+        BankSystem bankSystem;
+        long start = System.nanoTime();
+        if (journal != null) {
+            bankSystem = new BankSystem(InMemoryAccountDao.open(Paths.get(journal)), metrics);
+        } else if (shards > 1) {
+            ShardedAccountDao sharded = new ShardedAccountDao(profile, fileName, shards);
+            sharded.setMetrics(metrics);
+            if (lockTimeout >= 0) {
+                sharded.setLockTimeout(lockTimeout);
+            }
+            if (profile.isWarmUp()) {
+                warmedUp(sharded.warmUp(), start);
+            }
+            bankSystem = new BankSystem(new CachingAccountDao(sharded), metrics);
+        } else {
+            AccountDaoImpl dao = new AccountDaoImpl(profile, fileName);
+            dao.setMetrics(metrics);
+            if (lockTimeout >= 0) {
+                dao.setLockTimeout(lockTimeout);
+            }
+            if (profile.isWarmUp()) {
+                warmedUp(dao.warmUp(), start);
+            }
+            bankSystem = new BankSystem(new CachingAccountDao(dao), metrics);
+        }
+        if (admission != null) {
+            bankSystem.setAdmissionControl(admissionControl(admission, metrics));
+        }
+        if (script != null) {
+            runScript(bankSystem, script, threads);
+            return;
+        }
+        new Main(bankSystem).start();
+    }
+
+    private static void warmedUp(long cards, long start) {
+        System.out.printf("Opened and warmed up %d cards in %d ms%n", cards, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @param limits running,queued,perCard,waitMillis
+     */
+    static AdmissionControl admissionControl(String limits, Metrics metrics) {
+        String[] values = limits.split(",");
+        if (values.length != 4) {
+            throw new IllegalArgumentException("Expected -admission running,queued,perCard,waitMillis but got " + limits);
+        }
+        return new AdmissionControl(Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+                Integer.parseInt(values[2]), Long.parseLong(values[3]), metrics);
+    }
+
+    /**
+     * Runs the script ("-" reads it from the standard input) without the menu.
+     */
+    static void runScript(BankSystem bankSystem, String script, int threads) {
+        // everything printed meanwhile goes through one buffer
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        System.setOut(out);
+        try (BufferedReader reader = "-".equals(script)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+            new ScriptRunner(bankSystem, threads).run(reader, out);
+            if (bankSystem.getMetrics().isEnabled()) {
+                bankSystem.dumpMetrics();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out.flush();
+        }
     }
 
     public void start() {
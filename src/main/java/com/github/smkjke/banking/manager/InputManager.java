@@ -3,7 +3,9 @@ package com.github.smkjke.banking.manager;
 
 import com.github.smkjke.banking.system.Account;
 import com.github.smkjke.banking.system.BankSystem;
+import com.github.smkjke.banking.system.HistoryEntry;
 
+import java.util.List;
 import java.util.Scanner;
 
 public class InputManager {
@@ -20,32 +22,36 @@ public class InputManager {
         boolean exit = true;
         label:
         while (exit) {
-            showMainMenu();
+            showMainMenu(bankSystem);
             scanner.skip("((?<!\\R)\\s)*");
             String input = scanner.nextLine();
 
             switch (input) {
                 case "1":
-                    Account account = new Account(bankSystem.getBankID());
+                    Account account = bankSystem.createAccount();
                     System.out.println("Your card has been created");
                     System.out.println(account.getCardNumber());
                     System.out.println("Your card PIN:");
                     System.out.println(account.getPinCode());
-                    bankSystem.addCardToDB(account);
                     break;
                 case "2":
                     System.out.println("Enter your card number:");
                     String enteredCardNum = scanner.nextLine();
                     System.out.println("Enter your PIN:");
                     String pinCode = scanner.nextLine();
-                    if (bankSystem.tryToLogInAccount(enteredCardNum, pinCode)) {
+                    String token = bankSystem.logIn(enteredCardNum, pinCode);
+                    if (token != null) {
                         System.out.println("You have successfully logged in!");
                         System.out.println();
-                        currentAccount = bankSystem.getAccount(enteredCardNum);
-                        while (currentAccount != null && exit) {
+                        while (token != null && exit) {
                             showAccountMenu();
 
                             String insideInput = scanner.next();
+                            currentAccount = bankSystem.getSessionAccount(token);
+                            if (currentAccount == null) {
+                                System.out.println("Your session has expired, please log in again.");
+                                break;
+                            }
                             switch (insideInput) {
                                 case ("1"):
                                     System.out.println(bankSystem.getCurrentCardBalance(currentAccount.getCardNumber()));
@@ -73,11 +79,14 @@ public class InputManager {
                                     break;
                                 case ("4"):
                                     bankSystem.closeAccount(currentAccount.getId());
-                                    currentAccount = null;
+                                    token = null;
                                     break;
                                 case ("5"):
-                                    bankSystem.tryToLogOutAccount();
-                                    currentAccount = null;
+                                    bankSystem.logOut(token);
+                                    token = null;
+                                    break;
+                                case ("6"):
+                                    showStatement(bankSystem, currentAccount.getCardNumber());
                                     break;
                                 case ("0"):
                                     exit = false;
@@ -85,10 +94,18 @@ public class InputManager {
                                     break;
                             }
                         }
+                        currentAccount = null;
                     } else {
                         System.out.println("Wrong card number or PIN!");
                     }
                     break;
+                case "9":
+                    if (bankSystem.getMetrics().isEnabled()) {
+                        bankSystem.dumpMetrics();
+                    } else {
+                        System.out.println("\nIncorrect option! Try again.");
+                    }
+                    break;
                 case "0":
                     System.out.println("\nBye!");
                     break label;
@@ -99,10 +116,36 @@ public class InputManager {
         }
     }
 
-    private void showMainMenu() {
+    private void showMainMenu(BankSystem bankSystem) {
         System.out.println("1. Create account\n"
-                + "2. Log into account\n"
-                + "0. Exit");
+                + "2. Log into account");
+        if (bankSystem.getMetrics().isEnabled()) {
+            System.out.println("9. Show metrics");
+        }
+        System.out.println("0. Exit");
+    }
+
+    private void showStatement(BankSystem bankSystem, String cardNum) {
+        HistoryEntry last = null;
+        while (true) {
+            List<HistoryEntry> page = bankSystem.getStatement(cardNum, last, BankSystem.STATEMENT_PAGE_SIZE);
+            if (page.isEmpty()) {
+                System.out.println(last == null ? "No transactions yet." : "No more transactions.");
+                return;
+            }
+            for (HistoryEntry entry : page) {
+                System.out.println(entry);
+            }
+            if (page.size() < BankSystem.STATEMENT_PAGE_SIZE) {
+                return;
+            }
+            System.out.println("1. Next page");
+            System.out.println("0. Back");
+            if (!"1".equals(scanner.next())) {
+                return;
+            }
+            last = page.get(page.size() - 1);
+        }
     }
 
     private void showAccountMenu() {
@@ -112,6 +155,7 @@ public class InputManager {
         System.out.println("3. Do transfer");
         System.out.println("4. Close account");
         System.out.println("5. Log out");
+        System.out.println("6. Statement");
         System.out.println("0. Exit");
     }
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+package com.github.smkjke.banking.manager;
+
+import com.github.smkjke.banking.system.Account;
+import com.github.smkjke.banking.system.BankSystem;
+import com.github.smkjke.banking.system.CardSequencer;
+import com.github.smkjke.banking.system.LatencyHistogram;
+import com.github.smkjke.banking.system.TransferStatus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs commands from a script instead of the menu, one command per line:
+ * <pre>
+ * create                      new account with a new card, prints card and pin
+ * create CARD PIN             account with the given card
+ * income CARD AMOUNT
+ * transfer FROM TO AMOUNT
+ * balance CARD                prints the balance
+ * close CARD                  closes the account owning the card
+ * split CARD SLOTS            spreads the balance of a card receiving a lot over sub-balances, 1 joins them
+ * reconcile                   runs alone after all commands before it, prints the number of accounts and the total
+ * # comment
+ * </pre>
+ * Commands run on several threads, commands on the same card run in script order.
+ * Output is written as commands finish, prefixed by the line number, followed by a summary with
+ * the throughput and the latency of every command.
+ */
+public class ScriptRunner {
+
+    // commands read ahead of the slowest running one, per thread
+    private static final int IN_FLIGHT_PER_THREAD = 1024;
+    private static final String[] NO_CARDS = new String[0];
+
+    private enum Command {
+        CREATE, INCOME, TRANSFER, BALANCE, CLOSE, SPLIT, RECONCILE
+    }
+
+    private final BankSystem bankSystem;
+    private final int threads;
+    private final Map<Command, LatencyHistogram> latencies = new EnumMap<>(Command.class);
+    private final AtomicLong errors = new AtomicLong();
+
+    public ScriptRunner(BankSystem bankSystem, int threads) {
+        this.bankSystem = bankSystem;
+        this.threads = Math.max(1, threads);
+        for (Command command : Command.values()) {
+            latencies.put(command, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Runs all commands of the script and prints the summary.
+     */
+    public void run(BufferedReader script, PrintStream out) {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CardSequencer sequencer = new CardSequencer(executor);
+        final Semaphore inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+        final List<CompletableFuture<?>> pending = new ArrayList<>();
+        final long start = System.nanoTime();
+        long commands = 0;
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = script.readLine()) != null) {
+                lineNumber++;
+                final String[] words = line.trim().split("\\s+");
+                if (words[0].isEmpty() || words[0].startsWith("#")) {
+                    continue;
+                }
+                final int number = lineNumber;
+                final Command command;
+                try {
+                    command = Command.valueOf(words[0].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    report(out, number, "unknown command " + words[0]);
+                    continue;
+                }
+                commands++;
+                if (command == Command.RECONCILE) {
+                    // sees the result of every command before it
+                    awaitAll(pending);
+                }
+                inFlight.acquireUninterruptibly();
+                CompletableFuture<Void> future = sequencer.submit(cardsOf(command, words),
+                        () -> timed(command, () -> execute(command, words, number, out)))
+                        .whenComplete((result, error) -> {
+                            inFlight.release();
+                            if (error != null) {
+                                errors.incrementAndGet();
+                                report(out, number, error.getCause() == null ? error.toString() : error.getCause().toString());
+                            }
+                        });
+                pending.add(future);
+                if (command == Command.RECONCILE) {
+                    // and nothing after it
+                    awaitAll(pending);
+                }
+                if (pending.size() >= threads * IN_FLIGHT_PER_THREAD) {
+                    pending.removeIf(CompletableFuture::isDone);
+                }
+            }
+            awaitAll(pending);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            executor.shutdown();
+        }
+        printSummary(out, commands, System.nanoTime() - start);
+        out.flush();
+    }
+
+    private static void awaitAll(List<CompletableFuture<?>> pending) {
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).handle((result, error) -> null).join();
+        pending.clear();
+    }
+
+    private static String[] cardsOf(Command command, String[] words) {
+        switch (command) {
+            case TRANSFER:
+                return words.length > 2 ? new String[]{words[1], words[2]} : NO_CARDS;
+            case RECONCILE:
+                return NO_CARDS;
+            default:
+                return words.length > 1 ? new String[]{words[1]} : NO_CARDS;
+        }
+    }
+
+    private <T> T timed(Command command, Supplier<T> action) {
+        final long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            latencies.get(command).record(System.nanoTime() - start);
+        }
+    }
+
+    private Void execute(Command command, String[] words, int line, PrintStream out) {
+        switch (command) {
+            case CREATE:
+                if (words.length > 2) {
+                    if (!bankSystem.addCardToDB(new Account(bankSystem.newAccountId(), words[1], words[2], 0))) {
+                        errors.incrementAndGet();
+                        report(out, line, "card " + words[1] + " exists");
+                    }
+                } else {
+                    Account account = bankSystem.createAccount();
+                    report(out, line, account.getCardNumber() + " " + account.getPinCode());
+                }
+                break;
+            case INCOME: {
+                Account account = existing(words[1], line, out);
+                if (account != null) {
+                    bankSystem.addIncome(account, Integer.parseInt(words[2]));
+                }
+                break;
+            }
+            case TRANSFER: {
+                TransferStatus status = bankSystem.transfer(words[1], words[2], Integer.parseInt(words[3]));
+                if (status != TransferStatus.OK) {
+                    errors.incrementAndGet();
+                    report(out, line, "transfer " + status);
+                }
+                break;
+            }
+            case BALANCE:
+                if (existing(words[1], line, out) != null) {
+                    report(out, line, words[1] + " " + bankSystem.getCurrentCardBalance(words[1]));
+                }
+                break;
+            case CLOSE: {
+                Account account = existing(words[1], line, out);
+                if (account != null) {
+                    bankSystem.closeAccount(account.getId());
+                }
+                break;
+            }
+            case SPLIT:
+                if (!bankSystem.splitBalance(words[1], Integer.parseInt(words[2]))) {
+                    errors.incrementAndGet();
+                    report(out, line, "no card " + words[1]);
+                }
+                break;
+            case RECONCILE:
+                report(out, line, bankSystem.reconcile().toString());
+                break;
+        }
+        return null;
+    }
+
+    private Account existing(String card, int line, PrintStream out) {
+        Account account = bankSystem.lookupAccount(card);
+        if (account == null) {
+            errors.incrementAndGet();
+            report(out, line, "no card " + card);
+        }
+        return account;
+    }
+
+    private void report(PrintStream out, int line, String message) {
+        out.println(line + ": " + message);
+    }
+
+    private void printSummary(PrintStream out, long commands, long nanos) {
+        out.printf("%d commands in %.3f s, %.0f commands/s, %d errors, %d threads%n",
+                commands, nanos / 1e9, commands * 1e9 / Math.max(1, nanos), errors.get(), threads);
+        out.printf("%-10s %10s %10s %10s %10s %10s%n", "latency us", "count", "mean", "p50", "p99", "max");
+        for (Map.Entry<Command, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() > 0) {
+                out.printf("%-10s %10d %10.1f %10.1f %10.1f %10.1f%n",
+                        entry.getKey().name().toLowerCase(),
+                        histogram.getCount(),
+                        histogram.getMean() / 1000,
+                        histogram.getValueAtPercentile(50) / 1000.0,
+                        histogram.getValueAtPercentile(99) / 1000.0,
+                        histogram.getMax() / 1000.0);
+            }
+        }
+    }
+}
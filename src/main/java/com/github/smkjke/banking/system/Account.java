@@ -1,9 +1,13 @@
 package com.github.smkjke.banking.system;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Account {
 
+    private static final long IIN = 400000;
+    static final long MIN_ACCOUNT_NUMBER = 100_000_000;
+    static final long MAX_ACCOUNT_NUMBER = 999_999_999;
+
     private String cardNumber;
     private String pinCode;
     private int balance;
@@ -29,11 +33,40 @@ public class Account {
      */
 
     public void generateCard() {
-        Random random = new Random();
-        String randomCard = "400000" + ((long) Math.floor(Math.random() * 9_000_000_00) + 1_000_000_00);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.cardNumber = cardNumber(random.nextLong(MIN_ACCOUNT_NUMBER, MAX_ACCOUNT_NUMBER + 1));
+        this.pinCode = randomPin();
+    }
+
+    static String cardNumber(long accountNumber) {
+        long card = IIN * (MAX_ACCOUNT_NUMBER + 1) + accountNumber;
+        return CardNumbers.toString(card * 10 + LuhnAlgo.getChecksum(card));
+    }
+
+    /**
+     * @return account number of a card of this bank, -1 for other cards
+     */
+    static long accountNumber(String cardNumber) {
+        final long card = CardNumbers.parse(cardNumber);
+        final long accountNumber = card / 10 - IIN * (MAX_ACCOUNT_NUMBER + 1);
+        if (card == CardNumbers.NONE || accountNumber < MIN_ACCOUNT_NUMBER || accountNumber > MAX_ACCOUNT_NUMBER) {
+            return -1;
+        }
+        return accountNumber;
+    }
+
+    static String randomPin() {
+        return formatPin(ThreadLocalRandom.current().nextInt(10000));
+    }
 
-        this.cardNumber = randomCard + String.valueOf(LuhnAlgo.getChecksum(randomCard));
-        this.pinCode = String.format("%04d", random.nextInt(10000));
+    // same as String.format("%04d", pin) without the formatter
+    static String formatPin(int pin) {
+        char[] digits = new char[4];
+        for (int i = 3; i >= 0; i--) {
+            digits[i] = (char) ('0' + pin % 10);
+            pin /= 10;
+        }
+        return new String(digits);
     }
 
     public String getCardNumber() {
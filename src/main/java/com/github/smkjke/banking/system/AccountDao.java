@@ -1,15 +1,93 @@
 package com.github.smkjke.banking.system;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
 public interface AccountDao {
 
     Account get(String cardNum);
 
-    void create(Account account);
+    /**
+     * Finds a card when only its number, pin and owner are needed.
+     * The balance of the returned account may be outdated, use {@link #get(String)} to read it.
+     */
+    default Account lookup(String cardNum) {
+        return get(cardNum);
+    }
+
+    /**
+     * Reads many cards at once, all from one consistent snapshot.
+     *
+     * @return the cards by number, cards that don't exist are left out
+     */
+    Map<String, Account> getAll(Collection<String> cardNums);
+
+    /**
+     * Reads the balances of many cards at once, all from one consistent snapshot,
+     * so they add up even while transfers run. Cards that don't exist are left out.
+     */
+    CardBalances balancesOf(Collection<String> cardNums);
+
+    /**
+     * @return false if the card number already exists
+     */
+    boolean create(Account account);
+
+    /**
+     * Creates many accounts at once. Accounts whose card number already exists, or repeats an earlier one
+     * of the collection, are skipped.
+     *
+     * @return the created accounts
+     * @throws RuntimeException if the store fails, accounts created before may be kept
+     */
+    List<Account> createAll(Collection<Account> accounts);
 
     void update(int accountId, int amount);
 
-    void transfer(Account sender, Account receiver, int amount, long waitBeforeStartMs, boolean fail);
+    TransferStatus transfer(Account sender, Account receiver, int amount);
+
+    List<TransferStatus> transferBatch(List<TransferRequest> requests);
 
     void delete(int accountId);
 
+    /**
+     * Streams the numbers of all cards, without loading them all at once.
+     */
+    void forEachCardNumber(Consumer<String> consumer);
+
+    /**
+     * Reserves a block of card number counters for a {@link CardNumberAllocator}. Every allocator
+     * on the store gets blocks of its own, so they never issue the same number.
+     *
+     * @param from  the block starts here, unless blocks above it were reserved before
+     * @param count size of the block
+     * @return the first counter of the block
+     */
+    long reserveCardCounters(long from, int count);
+
+    /**
+     * Streams all accounts with their balances, without loading them all at once.
+     * The accounts are read from one consistent snapshot, so the balances add up even while transfers run.
+     */
+    void forEachAccount(Consumer<Account> consumer);
+
+    /**
+     * Reads a page of the card's statement, newest entries first.
+     *
+     * @param after last entry of the previous page, null for the first page
+     * @param limit maximum number of entries
+     */
+    List<HistoryEntry> history(String cardNum, HistoryEntry after, int limit);
+
+    /**
+     * Splits the balance of a card into sub-balances, so many credits to it at once don't wait for each other.
+     * Its balance stays the sum of all parts.
+     *
+     * @param slots number of sub-balances, 1 joins them back into one balance
+     * @return false if the card doesn't exist
+     */
+    boolean splitBalance(String cardNum, int slots);
+
 }
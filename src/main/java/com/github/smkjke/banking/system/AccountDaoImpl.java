@@ -1,56 +1,213 @@
 package com.github.smkjke.banking.system;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 public class AccountDaoImpl implements AccountDao {
 
-    private static final String URL = "jdbc:h2:/tmp/task_card/";
-    // number is supposed to be unique while h2 doesn't support unique constraint on blob cblob
+    // initial schema, number was TEXT (clob) so it could not be indexed, see migration 2
     private static final String CREATE_NEW_TABLE = "CREATE TABLE IF not EXISTS card (" +
             "ownerId INTEGER," +
             "number TEXT," +
             "pin TEXT," +
             "balance INTEGER DEFAULT 0)";
+    static final SchemaMigrator MIGRATIONS = new SchemaMigrator()
+            .sql(1, "create card table", CREATE_NEW_TABLE)
+            .sql(2, "typed and indexed card number",
+                    "ALTER TABLE card ALTER COLUMN number VARCHAR(19) NOT NULL",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS card_number_idx ON card(number)",
+                    "CREATE INDEX IF NOT EXISTS card_owner_idx ON card(ownerId)")
+            .sql(3, "row version for optimistic transfers",
+                    "ALTER TABLE card ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0")
+            .sql(4, "single statement transfer", TransferProcedure.CREATE_ALIAS_SQL)
+            // 5 created the intent table of cross shard transfers, ShardedAccountDao creates it on its shards now
+            .sql(6, "transaction history", TransactionHistory.CREATE_TABLE_SQL, TransactionHistory.CREATE_INDEX_SQL)
+            .add(7, "salted pin hashes", AccountDaoImpl::hashPins)
+            .sql(8, "sub-balances of hot cards", SubBalances.CREATE_TABLE_SQL)
+            .sql(9, "card number counter",
+                    "CREATE TABLE IF NOT EXISTS card_counter (id INTEGER PRIMARY KEY, next BIGINT NOT NULL)",
+                    "MERGE INTO card_counter KEY(id) VALUES (0, 0)");
+    private static final String INSERT_SQL = "INSERT into card (ownerId, number, pin) values (?, ?, ?)";
+    // the row stays locked until the commit, so the block read back is the one just reserved
+    private static final String RESERVE_COUNTERS_SQL = "UPDATE card_counter SET next = GREATEST(next, ?) + ? WHERE id = 0";
+    private static final String RESERVED_COUNTERS_SQL = "SELECT next FROM card_counter WHERE id = 0";
+    // one round trip for a whole chunk of numbers, H2 looks up each element of the array parameter in the index
+    private static final String EXISTING_CARDS_SQL = "SELECT number FROM card WHERE number = ANY(?)";
+    private static final int INSERT_BATCH_SIZE = 1000;
+    private static final int SCAN_FETCH_SIZE = 1000;
+    private static final int INSERT_BATCHES_PER_TRANSACTION = 10;
+    private static final String GET_SQL = "select * from card where number = ? ";
+    // the cards of a multi-get, one table per connection, emptied by the commit
+    private static final String CREATE_READ_TABLE_SQL = "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS card_read "
+            + "(number VARCHAR(19) PRIMARY KEY) ON COMMIT DELETE ROWS";
+    private static final String INSERT_READ_SQL = "INSERT INTO card_read (number) VALUES (?)";
+    // IN looks up every number in the card index, a join might scan the card table instead
+    private static final String GET_ALL_SQL = "SELECT ownerId, number, pin, balance%s FROM card "
+            + "WHERE number IN (SELECT number FROM card_read)";
+    private static final int READ_CHUNK_SIZE = 1000;
+    private static final int MAX_CARD_LENGTH = 19;
     private static final String LOCK_BY_CARD_SQL = "SELECT number FROM card where number = ? FOR UPDATE";
-    private String fileName = "";
+    private static final String LOCK_BALANCE_BY_CARD_SQL = "SELECT balance FROM card where number = ? FOR UPDATE";
+    // every balance change bumps the version, optimistic transfers rely on it
+    static final String DEBIT_SQL = "UPDATE card SET balance = balance - ?, version = version + 1 WHERE number = ? and balance >= ?";
+    static final String CREDIT_SQL = "UPDATE card SET balance = balance + ?, version = version + 1 WHERE number = ?";
+    private static final String READ_VERSIONS_SQL = "SELECT number, balance, version FROM card WHERE number IN (?, ?)";
+    private static final String VERSIONED_UPDATE_SQL = "UPDATE card SET balance = balance + ?, version = version + 1 WHERE number = ? and version = ?";
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+    private static final int LOCK_TIMEOUT_ERROR = 50200;
+    private static final int DUPLICATE_KEY_ERROR = 23505;
+    // a chunk conflicts again only if yet another of its cards was inserted meanwhile
+    private static final int CHUNK_ATTEMPTS = 3;
+    private static final long MAX_BACKOFF_MS = 32;
+    private final ConnectionPool pool;
+    private volatile TransferHook transferHook = TransferHook.NONE;
+    private volatile Metrics metrics = Metrics.NOOP;
+    private volatile TransferStrategy transferStrategy = TransferStrategy.PESSIMISTIC;
+    // slots of every hot card, see SubBalances
+    private final Map<String, Integer> hotCards = new ConcurrentHashMap<>();
 
     public AccountDaoImpl(String fileName) {
-        this.fileName = fileName;
+        this(StorageProfile.file(), fileName);
+    }
+
+    /**
+     * @param name of the database in the profile
+     */
+    public AccountDaoImpl(StorageProfile profile, String name) {
+        this(profile.open(name));
+    }
+
+    public AccountDaoImpl(ConnectionPool pool) {
+        this.pool = pool;
         createIfNotExists();
     }
 
+    public static String url(String fileName) {
+        return StorageProfile.file().url(fileName);
+    }
+
     /**
+     * Borrows a connection from the pool, closing it returns the connection back.
+     *
      * @return the Connection object
      */
 
-    private Connection connect() {
-        try {
-            return DriverManager.
-                    getConnection(URL + fileName);
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        }
-        return null;
+    Connection connect() throws SQLException {
+        final long start = System.nanoTime();
+        final Connection connection = pool.getConnection();
+        metrics.recordTime("connection.acquire", System.nanoTime() - start);
+        return connection;
+    }
+
+
+    public void setTransferHook(TransferHook transferHook) {
+        this.transferHook = transferHook == null ? TransferHook.NONE : transferHook;
+    }
+
+    /**
+     * How long a statement waits for a row lock held by another transaction before it fails,
+     * so a transfer on a hot card gives up instead of queueing on the lock.
+     */
+    public void setLockTimeout(long millis) {
+        pool.setSessionSql("SET LOCK_TIMEOUT " + millis);
+    }
+
+    public void setTransferStrategy(TransferStrategy transferStrategy) {
+        this.transferStrategy = transferStrategy;
     }
 
+    /**
+     * Reports connection acquisition, lock wait and the steps of a transfer, see {@link MeteredAccountDao}
+     * for the per method timings.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics == null ? Metrics.NOOP : metrics;
+    }
 
+    /**
+     * Creates the schema or upgrades it to the latest migration.
+     *
+     * @throws RuntimeException if a migration fails, the dao can't work on a partial schema
+     */
     void createIfNotExists() {
-        Statement stmt = null;
+        try (Connection conn = this.connect()) {
+            MIGRATIONS.migrate(conn);
+            hotCards.clear();
+            SubBalances.load(conn, hotCards);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads what the first requests would otherwise wait for: every connection of the pool is opened
+     * with the statements of lookups and transfers prepared, and the card rows and both card indexes
+     * are read once into the page cache.
+     *
+     * @return number of cards
+     */
+    public long warmUp() {
         try {
-            Connection conn = this.connect();
-            stmt = conn.createStatement();
-            stmt.execute(CREATE_NEW_TABLE);
+            pool.warmUp(GET_SQL, LOCK_BY_CARD_SQL, DEBIT_SQL, CREDIT_SQL, TransactionHistory.INSERT_SQL);
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        try (Connection conn = this.connect();
+             Statement statement = conn.createStatement()) {
+            long cards;
+            try (ResultSet rs = statement.executeQuery("SELECT COUNT(*), SUM(balance) FROM card")) {
+                rs.next();
+                cards = rs.getLong(1);
+            }
+            // answered from the indexes alone
+            statement.executeQuery("SELECT COUNT(*) FROM card WHERE number > ''").close();
+            statement.executeQuery("SELECT COUNT(*) FROM card WHERE ownerId >= " + Integer.MIN_VALUE).close();
+            return cards;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // PINs were stored in plain text before migration 7
+    private static void hashPins(Connection connection) throws SQLException {
+        try (Statement select = connection.createStatement();
+             PreparedStatement update = connection.prepareStatement("UPDATE card SET pin = ? WHERE number = ?")) {
+            ResultSet rs = select.executeQuery("SELECT number, pin FROM card");
+            int batched = 0;
+            while (rs.next()) {
+                if (!PinHash.isHashed(rs.getString(2))) {
+                    update.setString(1, PinHash.hash(rs.getString(2)));
+                    update.setString(2, rs.getString(1));
+                    update.addBatch();
+                    if (++batched % INSERT_BATCH_SIZE == 0) {
+                        update.executeBatch();
+                    }
+                }
+            }
+            update.executeBatch();
         }
     }
 
     @Override
     public Account get(String number) {
         try (Connection conn = this.connect();
-             PreparedStatement statement = conn.prepareStatement("select * from card " +
-                     "where number = ? ")) {
+             PreparedStatement statement = conn.prepareStatement(hotCards.containsKey(number)
+                     ? "select ownerId, number, pin, balance + " + SubBalances.TOTAL_SQL + " from card where number = ?"
+                     : GET_SQL)) {
             statement.setString(1, number);
 
             ResultSet rs = statement.executeQuery();
@@ -69,18 +226,218 @@ public class AccountDaoImpl implements AccountDao {
     }
 
     @Override
-    public void create(Account account) {
-        try {
-            Connection conn = this.connect();
-            PreparedStatement statement = conn.prepareStatement(
-                    "INSERT into card (ownerId, number, pin) values (?, ?, ?)");
+    public Map<String, Account> getAll(Collection<String> cardNums) {
+        return getAll(cardNums, null);
+    }
+
+    /**
+     * Like {@link #getAll(Collection)}, adding an SQL expression over the card row to every balance
+     * in the same statement, so it is read from the same snapshot.
+     *
+     * @param adjustment the expression, null for none
+     */
+    Map<String, Account> getAll(Collection<String> cardNums, String adjustment) {
+        final Map<String, Account> accounts = new HashMap<>();
+        readAll(cardNums, adjustment, rs -> accounts.put(rs.getString(2),
+                new Account(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4))));
+        return accounts;
+    }
+
+    @Override
+    public CardBalances balancesOf(Collection<String> cardNums) {
+        return balancesOf(cardNums, null);
+    }
+
+    /**
+     * Like {@link #balancesOf(Collection)}, see {@link #getAll(Collection, String)} for the adjustment.
+     */
+    CardBalances balancesOf(Collection<String> cardNums, String adjustment) {
+        final CardBalances balances = new CardBalances(cardNums.size());
+        readAll(cardNums, adjustment, rs -> {
+            final long card = CardNumbers.parse(rs.getString(2));
+            if (card != CardNumbers.NONE) {
+                balances.put(card, rs.getInt(4));
+            }
+        });
+        return balances;
+    }
+
+    private interface RowReader {
+        void read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Inserts the cards into a temporary table in batches of {@link #READ_CHUNK_SIZE} and reads them with
+     * a single query. A single statement reads all rows from one snapshot, so a transfer committed meanwhile
+     * is seen by none or by both of its cards. Separate IN-list queries per chunk would each see their own.
+     */
+    private void readAll(Collection<String> cardNums, String adjustment, RowReader reader) {
+        final Set<String> distinct = new TreeSet<>();
+        for (String cardNum : cardNums) {
+            // longer ones can't be stored, so they don't exist
+            if (cardNum.length() <= MAX_CARD_LENGTH) {
+                distinct.add(cardNum);
+            }
+        }
+        if (distinct.isEmpty()) {
+            return;
+        }
+        final String balance = (hotCards.isEmpty() ? "" : " + " + SubBalances.TOTAL_SQL)
+                + (adjustment == null ? "" : " + " + adjustment);
+        try (Connection connection = this.connect()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_READ_TABLE_SQL);
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertStatement = connection.prepareStatement(INSERT_READ_SQL);
+                 PreparedStatement statement = connection.prepareStatement(String.format(GET_ALL_SQL, balance))) {
+                int batched = 0;
+                for (String cardNum : distinct) {
+                    insertStatement.setString(1, cardNum);
+                    insertStatement.addBatch();
+                    if (++batched % READ_CHUNK_SIZE == 0) {
+                        insertStatement.executeBatch();
+                    }
+                }
+                insertStatement.executeBatch();
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    reader.read(rs);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean create(Account account) {
+        try (Connection conn = this.connect();
+             PreparedStatement statement = conn.prepareStatement(INSERT_SQL)) {
             statement.setInt(1, account.getId());
             statement.setString(2, account.getCardNumber());
             statement.setString(3, account.getPinCode());
             statement.executeUpdate();
+            return true;
         } catch (SQLException e) {
-            e.printStackTrace();
+            if (e.getErrorCode() == DUPLICATE_KEY_ERROR) {
+                return false;
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Inserts the accounts in JDBC batches of {@link #INSERT_BATCH_SIZE}, committing every
+     * {@link #INSERT_BATCHES_PER_TRANSACTION} batches. Every batch first finds which of its numbers
+     * already exist with a single query. Accounts are inserted in card number order, so the index
+     * is filled page by page instead of at random places, which makes the inserts about twice as fast.
+     */
+    @Override
+    public List<Account> createAll(Collection<Account> accounts) {
+        final Set<String> seen = new HashSet<>();
+        final List<Account> sorted = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            if (seen.add(account.getCardNumber())) {
+                sorted.add(account);
+            }
         }
+        sorted.sort(Comparator.comparing(Account::getCardNumber));
+
+        final Set<String> inserted = new HashSet<>();
+        try (Connection connection = this.connect()) {
+            connection.setAutoCommit(false);
+            try {
+                final PreparedStatement existingStatement = connection.prepareStatement(EXISTING_CARDS_SQL);
+                final PreparedStatement insertStatement = connection.prepareStatement(INSERT_SQL);
+                final Set<String> uncommitted = new HashSet<>();
+                int batches = 0;
+                for (int from = 0; from < sorted.size(); from += INSERT_BATCH_SIZE) {
+                    List<Account> chunk = sorted.subList(from, Math.min(sorted.size(), from + INSERT_BATCH_SIZE));
+                    insertChunkAgainOnConflict(connection, existingStatement, insertStatement, chunk, uncommitted);
+                    if (++batches % INSERT_BATCHES_PER_TRANSACTION == 0) {
+                        connection.commit();
+                        inserted.addAll(uncommitted);
+                        uncommitted.clear();
+                    }
+                }
+                connection.commit();
+                inserted.addAll(uncommitted);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // committed chunks stay, existing cards are no error, so this is the database failing
+            throw new RuntimeException(e);
+        }
+
+        final List<Account> created = new ArrayList<>(inserted.size());
+        for (Account account : accounts) {
+            if (inserted.remove(account.getCardNumber())) {
+                created.add(account);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * A card inserted concurrently by somebody else fails the whole batch on the unique index.
+     * Only the chunk is rolled back, the existing cards are queried again and the chunk redone,
+     * the chunks before it stay in the transaction.
+     */
+    private void insertChunkAgainOnConflict(Connection connection, PreparedStatement existingStatement,
+                                            PreparedStatement insertStatement, List<Account> chunk,
+                                            Set<String> inserted) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            final Savepoint savepoint = connection.setSavepoint();
+            final Set<String> chunkInserted = new HashSet<>();
+            try {
+                insertChunk(existingStatement, insertStatement, chunk, chunkInserted);
+                connection.releaseSavepoint(savepoint);
+                inserted.addAll(chunkInserted);
+                return;
+            } catch (SQLException e) {
+                if (e.getErrorCode() != DUPLICATE_KEY_ERROR || attempt == CHUNK_ATTEMPTS) {
+                    throw e;
+                }
+                insertStatement.clearBatch();
+                connection.rollback(savepoint);
+            }
+        }
+    }
+
+    private void insertChunk(PreparedStatement existingStatement, PreparedStatement insertStatement,
+                             List<Account> chunk, Set<String> inserted) throws SQLException {
+        final String[] numbers = new String[chunk.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = chunk.get(i).getCardNumber();
+        }
+        existingStatement.setObject(1, numbers);
+        final Set<String> existing = new HashSet<>();
+        ResultSet rs = existingStatement.executeQuery();
+        while (rs.next()) {
+            existing.add(rs.getString(1));
+        }
+
+        for (Account account : chunk) {
+            if (!existing.contains(account.getCardNumber())) {
+                insertStatement.setInt(1, account.getId());
+                insertStatement.setString(2, account.getCardNumber());
+                insertStatement.setString(3, account.getPinCode());
+                insertStatement.addBatch();
+                inserted.add(account.getCardNumber());
+            }
+        }
+        insertStatement.executeBatch();
     }
 
     /**
@@ -88,77 +445,280 @@ public class AccountDaoImpl implements AccountDao {
      *
      * @param connection with autocommit mode disabled
      * @param cards      array of cards to lock
+     * @return false if some card doesn't exist
      * @throws SQLException
      */
-    private void orderedLockByCard(Connection connection, String[] cards) throws SQLException {
+    private boolean orderedLockByCard(Connection connection, String[] cards) throws SQLException {
         if (connection.getAutoCommit()) {
             throw new IllegalStateException("Connection is in autocommit mode.");
         }
 
         Arrays.sort(cards);
         final PreparedStatement lockStatement = connection.prepareStatement(LOCK_BY_CARD_SQL);
-        for (int i = 0; i < cards.length; i++) {
-            final String card = cards[0];
+        for (final String card : cards) {
             lockStatement.setString(1, card);
             ResultSet lockRs = lockStatement.executeQuery();
             if (!lockRs.next()) {
-                throw new IllegalStateException("Lock failed. Card " + card + " doesn't exists.");
+                return false;
             }
         }
+        return true;
     }
 
-    public void transfer(Account sender, Account receiver, int amount, long waitBeforeStartMs, boolean fail) {
-        Connection connection = null;
-
+    @Override
+    public TransferStatus transfer(Account sender, Account receiver, int amount) {
         try {
-            if (waitBeforeStartMs > 0) {
-                Thread.sleep(waitBeforeStartMs);
+            transferHook.beforeStart(sender, receiver);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TransferStatus.FAILED;
+        }
+        if (!hotCards.isEmpty()
+                && (hotCards.containsKey(sender.getCardNumber()) || hotCards.containsKey(receiver.getCardNumber()))) {
+            // only the locking transfer knows about sub-balances
+            return pessimisticTransfer(sender, receiver, amount);
+        }
+        if (transferStrategy == TransferStrategy.STORED_PROCEDURE) {
+            return procedureTransfer(sender, receiver, amount);
+        }
+        if (transferStrategy == TransferStrategy.OPTIMISTIC) {
+            final TransferStatus status = optimisticTransfer(sender, receiver, amount);
+            if (status != null) {
+                return status;
             }
+            // too many conflicts, the card is hot, wait for the locks instead
+            metrics.increment("transfer.optimistic_fallback");
+        }
+        return pessimisticTransfer(sender, receiver, amount);
+    }
 
-            connection = this.connect();
-            connection.setAutoCommit(false);
+    /**
+     * One round trip: the transfer runs inside the database, see {@link TransferProcedure}.
+     * The connection stays in autocommit mode, so the call commits by itself.
+     */
+    private TransferStatus procedureTransfer(Account sender, Account receiver, int amount) {
+        final Metrics metrics = this.metrics;
+        try (Connection connection = this.connect()) {
+            final PreparedStatement callStatement = connection.prepareStatement(TransferProcedure.CALL_SQL);
+            callStatement.setString(1, sender.getCardNumber());
+            callStatement.setString(2, receiver.getCardNumber());
+            callStatement.setInt(3, amount);
+            final long start = System.nanoTime();
+            ResultSet rs = callStatement.executeQuery();
+            final TransferStatus status = rs.next() ? TransferProcedure.status(rs.getInt(1)) : TransferStatus.FAILED;
+            metrics.recordTime("transfer.call", System.nanoTime() - start);
+            return status;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            metrics.increment("transfer.rolled_back");
+            return TransferStatus.FAILED;
+        }
+    }
 
-            // to avoid deadlock
-            orderedLockByCard(connection, new String[]{sender.getCardNumber(), receiver.getCardNumber()});
+    /**
+     * @return the status, null if every attempt ran into a concurrent change
+     */
+    private TransferStatus optimisticTransfer(Account sender, Account receiver, int amount) {
+        final TransferHook hook = transferHook;
+        final Metrics metrics = this.metrics;
+        final String senderCard = sender.getCardNumber();
+        final String receiverCard = receiver.getCardNumber();
 
-            if (waitBeforeStartMs == 0) {
-                // for testing purposes
-                Thread.sleep(100);
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                metrics.increment("transfer.optimistic_conflict");
+                if (!backOff(attempt)) {
+                    return TransferStatus.FAILED;
+                }
             }
+            try (Connection connection = this.connect()) {
+                connection.setAutoCommit(false);
+                try {
+                    final PreparedStatement readStatement = connection.prepareStatement(READ_VERSIONS_SQL);
+                    readStatement.setString(1, senderCard);
+                    readStatement.setString(2, receiverCard);
+                    long senderVersion = -1;
+                    long receiverVersion = -1;
+                    int senderBalance = 0;
+                    ResultSet rs = readStatement.executeQuery();
+                    while (rs.next()) {
+                        if (senderCard.equals(rs.getString(1))) {
+                            senderBalance = rs.getInt(2);
+                            senderVersion = rs.getLong(3);
+                        }
+                        if (receiverCard.equals(rs.getString(1))) {
+                            receiverVersion = rs.getLong(3);
+                        }
+                    }
+                    if (senderVersion < 0 || receiverVersion < 0) {
+                        connection.rollback();
+                        return TransferStatus.CARD_NOT_FOUND;
+                    }
+                    hook.afterLock(sender, receiver);
+                    if (senderBalance < amount) {
+                        connection.rollback();
+                        return TransferStatus.INSUFFICIENT_FUNDS;
+                    }
+                    if (senderCard.equals(receiverCard)) {
+                        // one row, the second versioned update would always miss
+                        connection.rollback();
+                        return TransferStatus.OK;
+                    }
 
-            final PreparedStatement debitStatement = connection.prepareStatement(
-                    "UPDATE card SET balance = balance - ? WHERE number = ? and balance >= ?"
-            );
-            debitStatement.setInt(1, amount);
-            debitStatement.setString(2, sender.getCardNumber());
-            debitStatement.setInt(3, amount);
+                    // rows are written in natural order like locks are taken, so two transfers can't deadlock
+                    final PreparedStatement updateStatement = connection.prepareStatement(VERSIONED_UPDATE_SQL);
+                    boolean updated;
+                    if (senderCard.compareTo(receiverCard) < 0) {
+                        updated = updateVersioned(updateStatement, senderCard, -amount, senderVersion);
+                        if (updated) {
+                            hook.afterDebit(sender, receiver);
+                            updated = updateVersioned(updateStatement, receiverCard, amount, receiverVersion);
+                        }
+                    } else {
+                        updated = updateVersioned(updateStatement, receiverCard, amount, receiverVersion)
+                                && updateVersioned(updateStatement, senderCard, -amount, senderVersion);
+                        if (updated) {
+                            hook.afterDebit(sender, receiver);
+                        }
+                    }
+                    if (!updated) {
+                        connection.rollback();
+                        continue;
+                    }
+                    final PreparedStatement historyStatement = connection.prepareStatement(TransactionHistory.INSERT_SQL);
+                    TransactionHistory.addTransfer(historyStatement, senderCard, receiverCard, amount);
+                    historyStatement.executeBatch();
+                    connection.commit();
+                    return TransferStatus.OK;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    if (!isConflict(e)) {
+                        throw e;
+                    }
+                } catch (RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return TransferStatus.FAILED;
+            } catch (Exception e) {
+                e.printStackTrace();
+                metrics.increment("transfer.rolled_back");
+                return TransferStatus.FAILED;
+            }
+        }
+        return null;
+    }
 
-            if (debitStatement.executeUpdate() != 1) {
-                throw new IllegalStateException("Not enough money, card " + sender.getCardNumber());
+    private static boolean updateVersioned(PreparedStatement statement, String card, int amount, long version)
+            throws SQLException {
+        statement.setInt(1, amount);
+        statement.setString(2, card);
+        statement.setLong(3, version);
+        return statement.executeUpdate() == 1;
+    }
+
+    // lock timeout, deadlock or concurrent update, the transaction can simply be tried again
+    private static boolean isConflict(SQLException e) {
+        return e.getErrorCode() == LOCK_TIMEOUT_ERROR || e.getErrorCode() == 40001 || e.getErrorCode() == 90131;
+    }
+
+    /**
+     * Sleeps a random time, growing with every attempt, so conflicting transfers don't retry in lockstep.
+     *
+     * @return false if interrupted
+     */
+    private static boolean backOff(int attempt) {
+        final long maxMs = Math.min(MAX_BACKOFF_MS, 1L << attempt);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxMs + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private TransferStatus pessimisticTransfer(Account sender, Account receiver, int amount) {
+        final TransferHook hook = transferHook;
+        final Metrics metrics = this.metrics;
+        final String senderCard = sender.getCardNumber();
+        final String receiverCard = receiver.getCardNumber();
+        // a hot receiver is credited on a slot, its card row is not locked
+        final boolean hotReceiver = hotCards.containsKey(receiverCard);
+        // slots are locked in card order, after the card rows
+        final boolean creditFirst = hotReceiver && receiverCard.compareTo(senderCard) < 0;
+        Connection connection = null;
+
+        try {
+            connection = this.connect();
+            connection.setAutoCommit(false);
+
+            // to avoid deadlock
+            long start = System.nanoTime();
+            final boolean locked = orderedLockByCard(connection,
+                    hotReceiver ? new String[]{senderCard} : new String[]{senderCard, receiverCard});
+            metrics.recordTime("transfer.lockWait", System.nanoTime() - start);
+            if (!locked || creditFirst && !credit(connection, receiverCard, amount)) {
+                connection.rollback();
+                metrics.increment("transfer.rolled_back");
+                return TransferStatus.CARD_NOT_FOUND;
             }
+            hook.afterLock(sender, receiver);
 
-            if (fail) {
-                // let's assume here is thrown some kind of exception
-                throw new IllegalStateException();
+            start = System.nanoTime();
+            final boolean debited = debit(connection, senderCard, amount);
+            metrics.recordTime("transfer.debit", System.nanoTime() - start);
+            if (!debited) {
+                connection.rollback();
+                metrics.increment("transfer.rolled_back");
+                return TransferStatus.INSUFFICIENT_FUNDS;
             }
 
-            final PreparedStatement creditStatement = connection.prepareStatement(
-                    "UPDATE card SET balance = balance + ? WHERE number = ?"
-            );
-            creditStatement.setInt(1, amount);
-            creditStatement.setString(2, receiver.getCardNumber());
+            hook.afterDebit(sender, receiver);
 
-            creditStatement.executeUpdate();
+            if (!creditFirst) {
+                start = System.nanoTime();
+                final boolean credited = credit(connection, receiverCard, amount);
+                metrics.recordTime("transfer.credit", System.nanoTime() - start);
+                if (!credited) {
+                    connection.rollback();
+                    metrics.increment("transfer.rolled_back");
+                    return TransferStatus.CARD_NOT_FOUND;
+                }
+            }
 
+            final PreparedStatement historyStatement = connection.prepareStatement(TransactionHistory.INSERT_SQL);
+            TransactionHistory.addTransfer(historyStatement, sender.getCardNumber(), receiver.getCardNumber(), amount);
+            historyStatement.executeBatch();
+
+            start = System.nanoTime();
             connection.commit();
+            metrics.recordTime("transfer.commit", System.nanoTime() - start);
             connection.setAutoCommit(true);
+            return TransferStatus.OK;
 
         } catch (Exception e) {
-            e.printStackTrace();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (e instanceof SQLException && ((SQLException) e).getErrorCode() == LOCK_TIMEOUT_ERROR) {
+                // expected under overload with a short lock timeout
+                metrics.increment("transfer.lock_timeout");
+            } else {
+                e.printStackTrace();
+            }
             try {
-                connection.rollback();
+                if (connection != null) {
+                    connection.rollback();
+                    metrics.increment("transfer.rolled_back");
+                }
             } catch (SQLException e1) {
             }
+            return TransferStatus.FAILED;
         } finally {
 
             if (connection != null) {
@@ -170,9 +730,177 @@ public class AccountDaoImpl implements AccountDao {
         }
     }
 
+    /**
+     * Debits the card row, a hot card whose row balance is too low is swept first.
+     *
+     * @return false if the card doesn't exist or has not enough money
+     */
+    boolean debit(Connection connection, String card, int amount) throws SQLException {
+        try (PreparedStatement debitStatement = connection.prepareStatement(DEBIT_SQL)) {
+            debitStatement.setInt(1, amount);
+            debitStatement.setString(2, card);
+            debitStatement.setInt(3, amount);
+            if (debitStatement.executeUpdate() == 1) {
+                return true;
+            }
+            if (!hotCards.containsKey(card) || SubBalances.sweep(connection, card) == 0) {
+                return false;
+            }
+            metrics.increment("transfer.sweep");
+            return debitStatement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Credits a slot of a hot card, the card row of any other.
+     *
+     * @return false if the card doesn't exist
+     */
+    boolean credit(Connection connection, String card, int amount) throws SQLException {
+        final Integer slots = hotCards.get(card);
+        if (slots != null && SubBalances.credit(connection, card, slots, amount)) {
+            return true;
+        }
+        try (PreparedStatement creditStatement = connection.prepareStatement(CREDIT_SQL)) {
+            creditStatement.setInt(1, amount);
+            creditStatement.setString(2, card);
+            return creditStatement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Splits the balance of a card that receives a lot of money into sub-balances, see {@link SubBalances}.
+     * Changing the number of slots first sweeps them into the card row.
+     */
+    @Override
+    public boolean splitBalance(String cardNum, int slots) {
+        try (Connection connection = this.connect()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!orderedLockByCard(connection, new String[]{cardNum})) {
+                    connection.rollback();
+                    return false;
+                }
+                SubBalances.resize(connection, cardNum, slots);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        // a credit meanwhile to a slot that is gone falls back to the card row
+        if (slots > 1) {
+            hotCards.put(cardNum, slots);
+        } else {
+            hotCards.remove(cardNum);
+        }
+        return true;
+    }
+
+    /**
+     * Runs all transfers in one transaction: every card is locked once in natural order,
+     * transfers are checked one by one against the running balances and the resulting
+     * balance changes are written with a single JDBC batch.
+     * A transfer without enough money is skipped, it doesn't abort the rest of the batch.
+     */
+    @Override
+    public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+        final List<TransferStatus> statuses = new ArrayList<>(requests.size());
+        if (requests.isEmpty()) {
+            return statuses;
+        }
+
+        final SortedSet<String> cards = new TreeSet<>();
+        for (TransferRequest request : requests) {
+            cards.add(request.getSenderCardNumber());
+            cards.add(request.getReceiverCardNumber());
+        }
+
+        final Metrics metrics = this.metrics;
+        try (Connection connection = this.connect()) {
+            connection.setAutoCommit(false);
+            try {
+                long start = System.nanoTime();
+                final Map<String, Integer> balances = new HashMap<>();
+                final PreparedStatement lockStatement = connection.prepareStatement(LOCK_BALANCE_BY_CARD_SQL);
+                for (String card : cards) {
+                    lockStatement.setString(1, card);
+                    ResultSet lockRs = lockStatement.executeQuery();
+                    if (lockRs.next()) {
+                        balances.put(card, lockRs.getInt(1));
+                    }
+                }
+                // the batch writes one netted update per card row, hot cards are swept into it
+                for (String card : cards) {
+                    if (hotCards.containsKey(card) && balances.containsKey(card)) {
+                        balances.merge(card, SubBalances.sweep(connection, card), Integer::sum);
+                    }
+                }
+                metrics.recordTime("batch.lockWait", System.nanoTime() - start);
+
+                final Map<String, Integer> changes = new TreeMap<>();
+                final PreparedStatement historyStatement = connection.prepareStatement(TransactionHistory.INSERT_SQL);
+                for (TransferRequest request : requests) {
+                    final String senderCard = request.getSenderCardNumber();
+                    final String receiverCard = request.getReceiverCardNumber();
+                    final int amount = request.getAmount();
+                    final Integer senderBalance = balances.get(senderCard);
+                    if (senderBalance == null || !balances.containsKey(receiverCard)) {
+                        statuses.add(TransferStatus.CARD_NOT_FOUND);
+                    } else if (senderBalance < amount) {
+                        statuses.add(TransferStatus.INSUFFICIENT_FUNDS);
+                    } else {
+                        balances.put(senderCard, senderBalance - amount);
+                        balances.merge(receiverCard, amount, Integer::sum);
+                        changes.merge(senderCard, -amount, Integer::sum);
+                        changes.merge(receiverCard, amount, Integer::sum);
+                        TransactionHistory.addTransfer(historyStatement, senderCard, receiverCard, amount);
+                        statuses.add(TransferStatus.OK);
+                    }
+                }
+
+                final PreparedStatement creditStatement = connection.prepareStatement(CREDIT_SQL);
+                for (Map.Entry<String, Integer> change : changes.entrySet()) {
+                    if (change.getValue() != 0) {
+                        creditStatement.setInt(1, change.getValue());
+                        creditStatement.setString(2, change.getKey());
+                        creditStatement.addBatch();
+                    }
+                }
+                creditStatement.executeBatch();
+                historyStatement.executeBatch();
+
+                start = System.nanoTime();
+                connection.commit();
+                metrics.recordTime("batch.commit", System.nanoTime() - start);
+            } catch (SQLException e) {
+                connection.rollback();
+                metrics.increment("batch.rolled_back");
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            statuses.clear();
+            for (int i = 0; i < requests.size(); i++) {
+                statuses.add(TransferStatus.FAILED);
+            }
+        }
+        return statuses;
+    }
+
 
     @Override
     public void delete(int accountId) {
+        if (!hotCards.isEmpty()) {
+            deleteWithSlots(accountId);
+            return;
+        }
         try (Connection conn = this.connect();
              PreparedStatement statement = conn.prepareStatement("delete from card where ownerId = ?")) {
 
@@ -184,26 +912,184 @@ public class AccountDaoImpl implements AccountDao {
         }
     }
 
+    private void deleteWithSlots(int accountId) {
+        try (Connection conn = this.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement statement = conn.prepareStatement("delete from card where ownerId = ?")) {
+                final List<String> cards = cardsOf(conn, accountId);
+                for (String card : cards) {
+                    if (hotCards.containsKey(card)) {
+                        SubBalances.delete(conn, card);
+                    }
+                }
+                statement.setInt(1, accountId);
+                statement.executeUpdate();
+                conn.commit();
+                hotCards.keySet().removeAll(cards);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static List<String> cardsOf(Connection conn, int accountId) throws SQLException {
+        final List<String> cards = new ArrayList<>();
+        try (PreparedStatement statement = conn.prepareStatement("SELECT number FROM card WHERE ownerId = ? ORDER BY number")) {
+            statement.setInt(1, accountId);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                cards.add(rs.getString(1));
+            }
+        }
+        return cards;
+    }
+
+    /**
+     * Credits every card of the owner and adds their history entries in one transaction.
+     */
     @Override
     public void update(int accountId, int amount) {
+        try (Connection conn = this.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "update card set balance = balance + ?, version = version + 1 where ownerId = ?");
+                 PreparedStatement historyStatement = conn.prepareStatement(TransactionHistory.INCOME_SQL)) {
+                if (hotCards.isEmpty()) {
+                    statement.setInt(1, amount);
+                    statement.setInt(2, accountId);
+                    statement.executeUpdate();
+                } else {
+                    creditCards(conn, accountId, amount);
+                }
+                historyStatement.setInt(1, amount);
+                historyStatement.setInt(2, accountId);
+                historyStatement.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // card rows first, then slots, both in card order
+    private void creditCards(Connection conn, int accountId, int amount) throws SQLException {
+        final List<String> cards = cardsOf(conn, accountId);
+        for (String card : cards) {
+            if (!hotCards.containsKey(card)) {
+                credit(conn, card, amount);
+            }
+        }
+        for (String card : cards) {
+            if (hotCards.containsKey(card)) {
+                credit(conn, card, amount);
+            }
+        }
+    }
 
+    @Override
+    public void forEachCardNumber(Consumer<String> consumer) {
         try (Connection conn = this.connect();
-             PreparedStatement statement = conn.prepareStatement(
-                     "update card set balance = balance + ? where ownerId = ?")) {
+             PreparedStatement statement = conn.prepareStatement("SELECT number FROM card")) {
+            statement.setFetchSize(SCAN_FETCH_SIZE);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                consumer.accept(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            statement.setInt(1, amount);
-            statement.setInt(2, accountId);
-            statement.executeUpdate();
+    @Override
+    public long reserveCardCounters(long from, int count) {
+        try (Connection connection = this.connect()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement reserve = connection.prepareStatement(RESERVE_COUNTERS_SQL);
+                 PreparedStatement reserved = connection.prepareStatement(RESERVED_COUNTERS_SQL)) {
+                reserve.setLong(1, from);
+                reserve.setLong(2, count);
+                reserve.executeUpdate();
+                ResultSet rs = reserved.executeQuery();
+                rs.next();
+                final long end = rs.getLong(1);
+                connection.commit();
+                return end - count;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    /**
+     * A single query sees one snapshot of the table. It runs lazily on a forward only cursor,
+     * so H2 hands out rows as they are read instead of building the whole result first.
+     */
+    @Override
+    public void forEachAccount(Consumer<Account> consumer) {
+        try (Connection conn = this.connect()) {
+            try (Statement settings = conn.createStatement()) {
+                settings.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            }
+            try (PreparedStatement statement = conn.prepareStatement(hotCards.isEmpty()
+                            ? "SELECT ownerId, number, pin, balance FROM card"
+                            : "SELECT ownerId, number, pin, balance + " + SubBalances.TOTAL_SQL + " FROM card",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(SCAN_FETCH_SIZE);
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    consumer.accept(new Account(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4)));
+                }
+            } finally {
+                try (Statement settings = conn.createStatement()) {
+                    settings.execute("SET LAZY_QUERY_EXECUTION FALSE");
+                }
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<HistoryEntry> history(String cardNum, HistoryEntry after, int limit) {
+        try (Connection conn = this.connect()) {
+            return TransactionHistory.page(conn, cardNum, after, limit);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Closes the pooled connections.
+     */
+    public void close() {
+        pool.close();
+    }
+
     public void dropTable() {
         try (Connection conn = this.connect();
-             PreparedStatement statement = conn.prepareStatement("DROP TABLE card")) {
-            statement.executeUpdate();
+             Statement statement = conn.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS card");
+            statement.executeUpdate("DROP TABLE IF EXISTS " + TransactionHistory.TABLE);
+            statement.executeUpdate("DROP TABLE IF EXISTS " + SubBalances.TABLE);
+            statement.executeUpdate("DROP TABLE IF EXISTS card_counter");
+            hotCards.clear();
+            statement.executeUpdate("DROP ALIAS IF EXISTS " + TransferProcedure.ALIAS);
+            statement.executeUpdate("DROP TABLE IF EXISTS " + SchemaMigrator.VERSION_TABLE);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,159 @@
+package com.github.smkjke.banking.system;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounds how many transfers run and wait at once, so overload turns into fast rejections
+ * instead of threads piling up on row locks.
+ * <p>
+ * A transfer is rejected right away when one of its cards already has {@code maxPerCard} transfers
+ * admitted, a hot card can't take all the capacity. Otherwise it runs if fewer than {@code maxRunning}
+ * transfers run, or waits up to {@code maxWaitMillis} for its turn if fewer than {@code maxQueued}
+ * transfers wait. Everything else is rejected with {@link TransferStatus#REJECTED} without touching the database.
+ */
+public class AdmissionControl {
+
+    private final int maxQueued;
+    private final int maxPerCard;
+    private final long maxWaitNanos;
+    private final Metrics metrics;
+    private final Semaphore running;
+    private final AtomicInteger queued = new AtomicInteger();
+    // admitted transfers per card, running or waiting, cards without any are removed
+    private final ConcurrentHashMap<String, Integer> depths = new ConcurrentHashMap<>();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxRunning    transfers running at once, about the size of the connection pool
+     * @param maxQueued     transfers waiting for a running one to finish
+     * @param maxPerCard    transfers admitted for one card, running or waiting
+     * @param maxWaitMillis how long a transfer waits before it is rejected
+     * @param metrics       counts rejections as "admission.rejected.card", "admission.rejected.queue" and
+     *                      "admission.rejected.timeout" and records waiting as "admission.wait"
+     */
+    public AdmissionControl(int maxRunning, int maxQueued, int maxPerCard, long maxWaitMillis, Metrics metrics) {
+        if (maxRunning < 1 || maxQueued < 0 || maxPerCard < 1 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Wrong admission limits");
+        }
+        this.running = new Semaphore(maxRunning);
+        this.maxQueued = maxQueued;
+        this.maxPerCard = maxPerCard;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the transfer if it is admitted.
+     *
+     * @param cards cards of the transfer, the per card limit applies to each
+     * @return status of the transfer, {@link TransferStatus#REJECTED} if it didn't run
+     */
+    public TransferStatus admit(String[] cards, Supplier<TransferStatus> transfer) {
+        int entered = 0;
+        try {
+            for (; entered < cards.length; entered++) {
+                if (enter(cards[entered]) > maxPerCard) {
+                    entered++;
+                    return reject("admission.rejected.card");
+                }
+            }
+            if (!running.tryAcquire()) {
+                if (queued.incrementAndGet() > maxQueued) {
+                    queued.decrementAndGet();
+                    return reject("admission.rejected.queue");
+                }
+                final long start = System.nanoTime();
+                final boolean acquired;
+                try {
+                    acquired = running.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return reject("admission.rejected.timeout");
+                } finally {
+                    queued.decrementAndGet();
+                    metrics.recordTime("admission.wait", System.nanoTime() - start);
+                }
+                if (!acquired) {
+                    return reject("admission.rejected.timeout");
+                }
+            }
+            try {
+                return transfer.get();
+            } finally {
+                running.release();
+            }
+        } finally {
+            for (int i = 0; i < entered; i++) {
+                leave(cards[i]);
+            }
+        }
+    }
+
+    private TransferStatus reject(String counter) {
+        rejected.increment();
+        metrics.increment(counter);
+        return TransferStatus.REJECTED;
+    }
+
+    private int enter(String card) {
+        final int depth = depths.merge(card, 1, Integer::sum);
+        maxDepth.accumulateAndGet(depth, Math::max);
+        return depth;
+    }
+
+    private void leave(String card) {
+        depths.computeIfPresent(card, (key, depth) -> depth == 1 ? null : depth - 1);
+    }
+
+    /**
+     * @return transfers admitted for the card, running or waiting
+     */
+    public int getQueueDepth(String card) {
+        return depths.getOrDefault(card, 0);
+    }
+
+    /**
+     * @return depth of every card with admitted transfers, a snapshot
+     */
+    public Map<String, Integer> getQueueDepths() {
+        return new HashMap<>(depths);
+    }
+
+    /**
+     * @return the highest depth any card has reached
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        String hottest = null;
+        int hottestDepth = 0;
+        for (Map.Entry<String, Integer> depth : depths.entrySet()) {
+            if (depth.getValue() > hottestDepth) {
+                hottest = depth.getKey();
+                hottestDepth = depth.getValue();
+            }
+        }
+        return "Admission: waiting " + queued.get() + ", rejected " + rejected.sum()
+                + ", max card depth " + maxDepth.get()
+                + (hottest == null ? "" : ", hottest card " + hottest + " at " + hottestDepth);
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.smkjke.banking.system;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes every balance to a file while streaming the accounts, so memory use doesn't depend
+ * on the number of accounts. Both formats end with the number of accounts and the total,
+ * {@link #reconcile()} computes the same summary without writing anything.
+ * <p>
+ * Binary format, little endian: {@link #BINARY_MAGIC}, then per account
+ * card number (long), owner id (int) and balance (int), then the trailer:
+ * {@link #TRAILER} (long) followed by the account count and the total (longs).
+ */
+public class BalanceExporter {
+
+    public enum Format {
+        CSV,
+        BINARY
+    }
+
+    public static final int BINARY_MAGIC = 0x314C4142; // "BAL1"
+    public static final long TRAILER = -1;
+    static final int BINARY_RECORD_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] CSV_HEADER = "number,ownerId,balance\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final AccountDao accountDao;
+
+    public BalanceExporter(AccountDao accountDao) {
+        this.accountDao = accountDao;
+    }
+
+    /**
+     * Sums the balances of one consistent scan.
+     */
+    public BalanceReport reconcile() {
+        final Summary summary = new Summary();
+        accountDao.forEachAccount(summary::add);
+        return summary.report();
+    }
+
+    public BalanceReport export(Path file, Format format) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final Output out = new Output(channel);
+            final Summary summary = new Summary();
+            if (format == Format.CSV) {
+                out.ensure(CSV_HEADER.length).put(CSV_HEADER);
+                accountDao.forEachAccount(account -> {
+                    summary.add(account);
+                    // a card has at most 19 digits, ints 11 characters
+                    out.ensure(19 + 11 + 11 + 3);
+                    out.ascii(account.getCardNumber()).put((byte) ',');
+                    out.ascii(Integer.toString(account.getId())).put((byte) ',');
+                    out.ascii(Integer.toString(account.getBalance())).put((byte) '\n');
+                });
+                out.ensure(64);
+                out.ascii("# accounts " + summary.accounts + " total " + summary.total + "\n");
+            } else {
+                out.ensure(4).putInt(BINARY_MAGIC);
+                accountDao.forEachAccount(account -> {
+                    summary.add(account);
+                    out.ensure(BINARY_RECORD_SIZE)
+                            .putLong(CardNumbers.parse(account.getCardNumber()))
+                            .putInt(account.getId())
+                            .putInt(account.getBalance());
+                });
+                out.ensure(24).putLong(TRAILER).putLong(summary.accounts).putLong(summary.total);
+            }
+            out.flush();
+            channel.force(false);
+            return summary.report();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Summary {
+        long accounts;
+        long total;
+        int negative;
+
+        void add(Account account) {
+            accounts++;
+            total += account.getBalance();
+            if (account.getBalance() < 0) {
+                negative++;
+            }
+        }
+
+        BalanceReport report() {
+            return new BalanceReport(accounts, total, negative);
+        }
+    }
+
+    /**
+     * Fills a direct buffer and writes it to the channel when the next record doesn't fit.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        ByteBuffer ascii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+            return buffer;
+        }
+
+        void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * Number of accounts and the money on them, as seen by one scan.
+ */
+public class BalanceReport {
+
+    private final long accounts;
+    private final long total;
+    private final int negative;
+
+    public BalanceReport(long accounts, long total, int negative) {
+        this.accounts = accounts;
+        this.total = total;
+        this.negative = negative;
+    }
+
+    public long getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @return sum of all balances, doesn't overflow for any number of int balances a table can hold
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of accounts with a negative balance, must be 0
+     */
+    public int getNegative() {
+        return negative;
+    }
+
+    /**
+     * @param expectedTotal money put in minus money taken out, transfers must not change the total
+     */
+    public boolean isReconciled(long expectedTotal) {
+        return total == expectedTotal && negative == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Accounts: " + accounts + ", total balance: " + total + ", negative balances: " + negative;
+    }
+}
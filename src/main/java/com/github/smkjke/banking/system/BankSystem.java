@@ -1,18 +1,82 @@
 package com.github.smkjke.banking.system;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class BankSystem {
 
+    public static final int STATEMENT_PAGE_SIZE = 10;
+    // only cards created around the allocator can collide, a few rounds are always enough
+    private static final int MAX_PROVISIONING_ROUNDS = 10;
+
     private AtomicInteger bankID = new AtomicInteger(0);
     private final AccountDao accountDao;
+    private final Metrics metrics;
+    private final CardNumberAllocator allocator = new CardNumberAllocator();
+    private volatile CardSequencer sequencer;
+    private volatile ClearingHouse clearing;
+    private volatile AdmissionControl admission;
+    private volatile SessionManager sessions = new SessionManager();
 
     public BankSystem(String fileName) {
-        this(new AccountDaoImpl(fileName));
+        this(fileName, Metrics.NOOP);
+    }
+
+    public BankSystem(String fileName, Metrics metrics) {
+        this(new CachingAccountDao(accountDao(fileName, metrics)), metrics);
     }
 
-    BankSystem(AccountDao dao) {
-        this.accountDao = dao;
+    public BankSystem(AccountDao dao) {
+        this(dao, Metrics.NOOP);
+    }
+
+    /**
+     * @param metrics when enabled every dao call is timed, see {@link MeteredAccountDao}
+     */
+    public BankSystem(AccountDao dao, Metrics metrics) {
+        this.accountDao = metrics.isEnabled() ? new MeteredAccountDao(dao, metrics) : dao;
+        this.metrics = metrics;
+        allocator.seed(accountDao);
+    }
+
+    private static AccountDao accountDao(String fileName, Metrics metrics) {
+        AccountDaoImpl dao = new AccountDaoImpl(fileName);
+        dao.setMetrics(metrics);
+        return dao;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void dumpMetrics() {
+        metrics.dump(System.out);
+        final AdmissionControl admission = this.admission;
+        if (admission != null) {
+            System.out.println(admission);
+        }
+    }
+
+    /**
+     * Limits the transfers running and waiting at once, null to admit everything.
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admission;
     }
 
 
@@ -21,25 +85,176 @@ public class BankSystem {
     }
 
 
+    /**
+     * Reserves an id, unlike {@link #getBankID()} two threads never get the same one.
+     */
+    public int newAccountId() {
+        return bankID.getAndIncrement();
+    }
+
+    /**
+     * @return an account with a new id and a card number never issued before, not stored yet
+     */
+    public Account newAccount() {
+        return allocator.newAccount(newAccountId());
+    }
+
     public Account getAccount(String cardNum) {
         return accountDao.get(cardNum);
     }
 
+    /**
+     * Finds a card when only its number, pin and owner are needed, usually without hitting the database.
+     * The balance of the returned account may be outdated, use {@link #getAccount(String)} to read it.
+     */
+    public Account lookupAccount(String cardNum) {
+        return accountDao.lookup(cardNum);
+    }
+
+    /**
+     * @return the accounts of the cards that exist, by card number, as of one moment
+     */
+    public Map<String, Account> getAccounts(Collection<String> cardNums) {
+        return accountDao.getAll(cardNums);
+    }
+
+    /**
+     * @return balances of the cards that exist, as of one moment, so they add up even while transfers run
+     */
+    public CardBalances getBalances(Collection<String> cardNums) {
+        return accountDao.balancesOf(cardNums);
+    }
+
     public boolean tryToLogInAccount(final String cardNum, final String pinNum) {
-        Account account = accountDao.get(cardNum);
-        return account != null && account.getCardNumber().equals(cardNum) && account.getPinCode().equals(pinNum);
+        Account account = accountDao.lookup(cardNum);
+        return account != null && account.getCardNumber().equals(cardNum) && PinHash.matches(pinNum, account.getPinCode());
+    }
+
+    /**
+     * Checks the card and pin once and opens a session for them.
+     *
+     * @return token of the session, null if the card or pin is wrong
+     */
+    public String logIn(final String cardNum, final String pinNum) {
+        Account account = accountDao.lookup(cardNum);
+        if (account == null || !account.getCardNumber().equals(cardNum) || !PinHash.matches(pinNum, account.getPinCode())) {
+            return null;
+        }
+        return sessions.open(account);
+    }
+
+    /**
+     * @return id and card of the logged in account without looking it up, null if the session has expired
+     */
+    public Account getSessionAccount(String token) {
+        return sessions.get(token);
+    }
+
+    /**
+     * Replaces the sessions, every session opened before ends.
+     */
+    public void setSessionTtl(long ttlMillis) {
+        sessions = new SessionManager(ttlMillis);
     }
 
     public void tryToLogOutAccount() {
         System.out.println("You have successfully logged out!");
     }
 
-    public void addCardToDB(Account account) {
-        accountDao.create(account);
-        bankID.incrementAndGet();
+    public void logOut(String token) {
+        sessions.close(token);
+        tryToLogOutAccount();
+    }
+
+    /**
+     * Stores a new account with a new card, issuing another number while the card is taken,
+     * e.g. by a card stored with a number of its own.
+     *
+     * @return the stored account with its plain pin
+     * @throws IllegalStateException if no free card number was found
+     */
+    public Account createAccount() {
+        final Account account = newAccount();
+        Account candidate = account;
+        for (int round = 0; round < MAX_PROVISIONING_ROUNDS; round++) {
+            if (addCardToDB(candidate)) {
+                return candidate;
+            }
+            candidate = new Account(account.getId(), allocator.nextCardNumber(), account.getPinCode(), 0);
+        }
+        throw new IllegalStateException("No free card number after " + MAX_PROVISIONING_ROUNDS + " attempts");
+    }
+
+    /**
+     * @return false if the card number already exists
+     */
+    public boolean addCardToDB(Account account) {
+        if (!accountDao.create(withHashedPin(account))) {
+            return false;
+        }
+        bankID.accumulateAndGet(account.getId() + 1, Math::max);
+        return true;
+    }
+
+    private static Account withHashedPin(Account account) {
+        return new Account(account.getId(), account.getCardNumber(), PinHash.hash(account.getPinCode()), account.getBalance());
+    }
+
+    /**
+     * Stores the accounts with hashed pins.
+     *
+     * @return the created accounts as given, with their plain pins
+     */
+    private List<Account> createHashed(Collection<Account> accounts) {
+        final Map<String, Account> byCard = new HashMap<>(accounts.size() * 2);
+        final List<Account> hashed = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            if (byCard.putIfAbsent(account.getCardNumber(), account) == null) {
+                hashed.add(withHashedPin(account));
+            }
+        }
+        final List<Account> created = new ArrayList<>();
+        for (Account account : accountDao.createAll(hashed)) {
+            created.add(byCard.get(account.getCardNumber()));
+        }
+        return created;
     }
 
 
+    /**
+     * Creates accounts with new cards from the {@link CardNumberAllocator}, generated in parallel and inserted
+     * at once with {@link AccountDao#createAll(Collection)}. Cards created meanwhile by someone else
+     * may still collide, those are generated again.
+     *
+     * @return the created accounts with their pins
+     */
+    public List<Account> createAccounts(int count) {
+        final List<Account> created = new ArrayList<>(count);
+        for (int round = 0; created.size() < count && round < MAX_PROVISIONING_ROUNDS; round++) {
+            final int missing = count - created.size();
+            final int firstId = bankID.getAndAdd(missing);
+            final List<Account> accounts = IntStream.range(0, missing)
+                    .parallel()
+                    .mapToObj(i -> allocator.newAccount(firstId + i))
+                    .collect(Collectors.toList());
+            created.addAll(createHashed(accounts));
+        }
+        return created;
+    }
+
+    /**
+     * Adds prepared accounts, skipping cards which already exist.
+     *
+     * @return the created accounts
+     */
+    public List<Account> createAll(Collection<Account> accounts) {
+        final List<Account> created = createHashed(accounts);
+        for (Account account : created) {
+            bankID.accumulateAndGet(account.getId() + 1, Math::max);
+        }
+        return created;
+    }
+
     public void addIncome(Account account, int addSum) {
         accountDao.update(account.getId(), addSum);
     }
@@ -49,18 +264,148 @@ public class BankSystem {
         return account.getBalance();
     }
 
-    // remove after fixing
-    public void doTransfer(String senderCardNum, String receiverCardNum, int sum) {
-        doTransfer(senderCardNum, receiverCardNum, sum, 0, false);
+    /**
+     * Reads a page of the card's statement, newest first, see {@link AccountDao#history(String, HistoryEntry, int)}.
+     *
+     * @param after last entry of the previous page, null for the first page
+     */
+    public List<HistoryEntry> getStatement(String cardNum, HistoryEntry after, int limit) {
+        return accountDao.history(cardNum, after, limit);
+    }
+
+    /**
+     * For a card receiving many transfers and incomes at once, e.g. of a merchant or for payroll,
+     * see {@link AccountDao#splitBalance(String, int)}.
+     *
+     * @param slots number of sub-balances, 1 to join them again
+     */
+    public boolean splitBalance(String cardNum, int slots) {
+        return accountDao.splitBalance(cardNum, slots);
+    }
+
+    public TransferStatus doTransfer(String senderCardNum, String receiverCardNum, int sum) {
+        TransferStatus status = transfer(senderCardNum, receiverCardNum, sum);
+        if (status == TransferStatus.INSUFFICIENT_FUNDS) {
+            System.out.println("Not enough money!");
+        } else if (status == TransferStatus.REJECTED) {
+            System.out.println("Too many transfers right now, please try again later.");
+        }
+        return status;
+    }
+
+    /**
+     * Same as {@link #doTransfer(String, String, int)} without telling the user.
+     */
+    public TransferStatus transfer(String senderCardNum, String receiverCardNum, int sum) {
+        final AdmissionControl admission = this.admission;
+        if (admission == null) {
+            return transferAdmitted(senderCardNum, receiverCardNum, sum);
+        }
+        return admission.admit(new String[]{senderCardNum, receiverCardNum},
+                () -> transferAdmitted(senderCardNum, receiverCardNum, sum));
+    }
+
+    private TransferStatus transferAdmitted(String senderCardNum, String receiverCardNum, int sum) {
+        Account sender = accountDao.lookup(senderCardNum);
+        Account receiver = accountDao.lookup(receiverCardNum);
+        if (sender == null || receiver == null) {
+            return TransferStatus.CARD_NOT_FOUND;
+        }
+        return accountDao.transfer(sender, receiver, sum);
+    }
+
+    /**
+     * Transfers without blocking the caller. Transfers touching the same card run one after another
+     * in the order they were submitted, others run in parallel on the transfer executor.
+     * A queued transfer holds no row locks, it locks its cards only when it starts.
+     * With clearing enabled the transfer settles with its clearing window instead.
+     */
+    public CompletableFuture<TransferStatus> doTransferAsync(String senderCardNum, String receiverCardNum, int sum) {
+        final ClearingHouse clearing = this.clearing;
+        if (clearing != null) {
+            try {
+                return clearing.submit(senderCardNum, receiverCardNum, sum);
+            } catch (IllegalStateException e) {
+                // clearing was disabled meanwhile
+            }
+        }
+        return sequencer().submit(new String[]{senderCardNum, receiverCardNum},
+                () -> transfer(senderCardNum, receiverCardNum, sum));
     }
 
-    public void doTransfer(String senderCardNum, String receiverCardNum, int sum, long waitBeforeStartMs, boolean fail) {
-        accountDao.transfer(accountDao.get(senderCardNum), accountDao.get(receiverCardNum), sum, waitBeforeStartMs, fail);
+    /**
+     * Sets where asynchronous transfers run. Transfers already submitted keep their executor.
+     * By default it's a pool of {@link ConnectionPool#DEFAULT_MAX_SIZE} daemon threads,
+     * more threads than connections would only wait for the pool.
+     */
+    public synchronized void setTransferExecutor(Executor executor) {
+        sequencer = new CardSequencer(executor);
+    }
+
+    /**
+     * Settles asynchronous transfers in windows of up to maxTransfers transfers or windowMillis,
+     * see {@link ClearingHouse}. Transfers submitted before keep running as they were submitted.
+     */
+    public synchronized void enableClearing(int maxTransfers, long windowMillis) {
+        disableClearing();
+        clearing = new ClearingHouse(accountDao, maxTransfers, windowMillis, metrics);
+    }
+
+    /**
+     * Settles the open clearing window and goes back to transferring one by one.
+     */
+    public synchronized void disableClearing() {
+        final ClearingHouse current = clearing;
+        if (current != null) {
+            clearing = null;
+            current.close();
+        }
     }
 
+    private CardSequencer sequencer() {
+        CardSequencer current = sequencer;
+        if (current == null) {
+            synchronized (this) {
+                if (sequencer == null) {
+                    ExecutorService executor = Executors.newFixedThreadPool(ConnectionPool.DEFAULT_MAX_SIZE, runnable -> {
+                        Thread thread = new Thread(runnable, "transfer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    sequencer = new CardSequencer(executor);
+                }
+                current = sequencer;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Executes all transfers in one transaction, see {@link AccountDao#transferBatch(List)}.
+     *
+     * @return status of every request, in the same order
+     */
+    public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+        return accountDao.transferBatch(requests);
+    }
+
+
+    /**
+     * Streams all balances to the file, see {@link BalanceExporter}.
+     */
+    public BalanceReport exportBalances(Path file, BalanceExporter.Format format) {
+        return new BalanceExporter(accountDao).export(file, format);
+    }
+
+    /**
+     * Sums all balances from one consistent scan, the total must only change with incomes and closed accounts.
+     */
+    public BalanceReport reconcile() {
+        return new BalanceExporter(accountDao).reconcile();
+    }
 
     public boolean isCardExistsAndValid(String receiverCard) {
-        if (accountDao.get(receiverCard) != null) {
+        if (accountDao.lookup(receiverCard) != null) {
             if (receiverCard.length() == 16 && LuhnAlgo.isValid(receiverCard)) {
                 return true;
             } else {
@@ -75,6 +420,7 @@ public class BankSystem {
 
     public void closeAccount(int id) {
         accountDao.delete(id);
+        sessions.closeAll(id);
         System.out.println("The account " + id + " has been deleted!");
     }
 
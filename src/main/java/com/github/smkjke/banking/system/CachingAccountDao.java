@@ -0,0 +1,152 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches card number, pin and owner, which never change while the card exists,
+ * so {@link #lookup(String)} doesn't hit the wrapped dao.
+ * Balances are not cached, {@link #get(String)} always reads through and refreshes the entry.
+ * <p>
+ * The cache is split into segments, each an LRU map with its own lock.
+ */
+public class CachingAccountDao extends ForwardingAccountDao {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    private static final int SEGMENTS = 16;
+
+    private static final class CardInfo {
+        final int ownerId;
+        final String number;
+        final String pin;
+
+        CardInfo(Account account) {
+            this.ownerId = account.getId();
+            this.number = account.getCardNumber();
+            this.pin = account.getPinCode();
+        }
+    }
+
+    private final Map<String, CardInfo>[] segments;
+    // bumped by every delete, so a lookup racing with a delete doesn't cache the deleted card
+    private final AtomicLong deletions = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingAccountDao(AccountDao delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CachingAccountDao(AccountDao delegate, int capacity) {
+        super(delegate);
+        final int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        segments = new Map[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new LinkedHashMap<String, CardInfo>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CardInfo> eldest) {
+                    if (size() > segmentCapacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    private Map<String, CardInfo> segment(String cardNum) {
+        int h = cardNum.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public Account get(String cardNum) {
+        final long generation = deletions.get();
+        final Account account = delegate.get(cardNum);
+        cache(cardNum, account, generation);
+        return account;
+    }
+
+    @Override
+    public Account lookup(String cardNum) {
+        if (cardNum == null) {
+            return null;
+        }
+        final Map<String, CardInfo> segment = segment(cardNum);
+        final CardInfo info;
+        synchronized (segment) {
+            info = segment.get(cardNum);
+        }
+        if (info != null) {
+            hits.increment();
+            return new Account(info.ownerId, info.number, info.pin, 0);
+        }
+        misses.increment();
+        return get(cardNum);
+    }
+
+    private void cache(String cardNum, Account account, long generation) {
+        if (account == null) {
+            return;
+        }
+        final Map<String, CardInfo> segment = segment(cardNum);
+        synchronized (segment) {
+            if (deletions.get() == generation) {
+                segment.put(cardNum, new CardInfo(account));
+            }
+        }
+    }
+
+    @Override
+    public void delete(int accountId) {
+        delegate.delete(accountId);
+        deletions.incrementAndGet();
+        for (Map<String, CardInfo> segment : segments) {
+            synchronized (segment) {
+                Iterator<CardInfo> it = segment.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().ownerId == accountId) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        deletions.incrementAndGet();
+        for (Map<String, CardInfo> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, CardInfo> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
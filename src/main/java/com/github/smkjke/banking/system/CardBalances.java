@@ -0,0 +1,85 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Arrays;
+
+/**
+ * Balances of many cards read at once, see {@link AccountDao#balancesOf(java.util.Collection)}.
+ * Cards and balances are kept in primitive arrays in the order they were read and found through a
+ * {@link LongIntHashMap} from card number to position, so thousands of balances cost no boxing.
+ */
+public class CardBalances {
+
+    private final LongIntHashMap positions;
+    private long[] cards;
+    private int[] balances;
+    private int size;
+
+    CardBalances(int expectedSize) {
+        final int capacity = Math.max(4, expectedSize);
+        positions = new LongIntHashMap(capacity);
+        cards = new long[capacity];
+        balances = new int[capacity];
+    }
+
+    void put(long card, int balance) {
+        final int position = positions.get(card);
+        if (position != LongIntHashMap.MISSING) {
+            balances[position] = balance;
+            return;
+        }
+        if (size == cards.length) {
+            cards = Arrays.copyOf(cards, size * 2);
+            balances = Arrays.copyOf(balances, size * 2);
+        }
+        positions.put(card, size);
+        cards[size] = card;
+        balances[size] = balance;
+        size++;
+    }
+
+    /**
+     * @return number of cards found
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String cardNum) {
+        return positions.containsKey(CardNumbers.parse(cardNum));
+    }
+
+    /**
+     * @return the balance of the card, missing if it was not found
+     */
+    public int get(String cardNum, int missing) {
+        final int position = positions.get(CardNumbers.parse(cardNum));
+        return position == LongIntHashMap.MISSING ? missing : balances[position];
+    }
+
+    /**
+     * @param position from 0 to {@link #size()} - 1
+     */
+    public long cardAt(int position) {
+        return cards[position];
+    }
+
+    public int balanceAt(int position) {
+        return balances[position];
+    }
+
+    /**
+     * @return sum of all balances
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += balances[i];
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "Balances of " + size + " cards, total " + getTotal();
+    }
+}
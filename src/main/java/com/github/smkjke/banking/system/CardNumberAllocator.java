@@ -0,0 +1,160 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Arrays;
+
+/**
+ * Issues card numbers that look random but never repeat, asking the database once per block of numbers.
+ * <p>
+ * A counter is shuffled by a keyed Feistel network into an account number: the 900 000 000 account numbers
+ * form a 30 000 x 30 000 square, a counter is split into its row and column and every round
+ * mixes one half into the other, so different counters always give different account numbers.
+ * <p>
+ * Cards issued before, by this allocator or at random, are found by running the network backwards on
+ * every existing number at startup, see {@link #seed(AccountDao)}. The counter starts at the first one
+ * that is not taken and skips the taken ones above it. It is reserved from the database in blocks of
+ * {@link #BLOCK_SIZE}, so allocators of other bank systems or processes on the same database issue other numbers.
+ */
+public class CardNumberAllocator {
+
+    public static final long DEFAULT_KEY = 0x2545F4914F6CDD1DL;
+    private static final int HALF = 30_000;
+    static final long CAPACITY = (long) HALF * HALF;
+    private static final int ROUNDS = 6;
+    static final int BLOCK_SIZE = 1024;
+
+    private final long[] roundKeys = new long[ROUNDS];
+    // sorted counters above first whose account numbers were already issued
+    private volatile long[] taken = new long[0];
+    // guarded by this, counters come from the dao's blocks, or all from this allocator without a dao
+    private AccountDao store;
+    private long first;
+    private long next;
+    private long blockEnd;
+
+    public CardNumberAllocator() {
+        this(DEFAULT_KEY);
+    }
+
+    /**
+     * @param key shuffles the numbers, must stay the same for a database, otherwise every card
+     *            issued before is kept in memory as taken on startup
+     */
+    public CardNumberAllocator(long key) {
+        long state = key;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(state);
+        }
+        if (CAPACITY != Account.MAX_ACCOUNT_NUMBER - Account.MIN_ACCOUNT_NUMBER + 1) {
+            throw new IllegalStateException("Account numbers don't fit the permutation");
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private int round(int half, int round) {
+        return (int) ((mix(half ^ roundKeys[round]) >>> 1) % HALF);
+    }
+
+    long permute(long counter) {
+        int left = (int) (counter / HALF);
+        int right = (int) (counter % HALF);
+        for (int i = 0; i < ROUNDS; i++) {
+            int mixed = (left + round(right, i)) % HALF;
+            left = right;
+            right = mixed;
+        }
+        return (long) left * HALF + right;
+    }
+
+    long unpermute(long value) {
+        int left = (int) (value / HALF);
+        int right = (int) (value % HALF);
+        for (int i = ROUNDS - 1; i >= 0; i--) {
+            int previous = Math.floorMod(right - round(left, i), HALF);
+            right = left;
+            left = previous;
+        }
+        return (long) left * HALF + right;
+    }
+
+    /**
+     * Marks the cards of the dao as issued and reserves the counters from it from now on.
+     * Call it once, before issuing numbers.
+     */
+    public synchronized void seed(AccountDao dao) {
+        final Counters counters = new Counters();
+        dao.forEachCardNumber(card -> {
+            long accountNumber = Account.accountNumber(card);
+            if (accountNumber >= 0) {
+                counters.add(unpermute(accountNumber - Account.MIN_ACCOUNT_NUMBER));
+            }
+        });
+        seed(counters.values, counters.size);
+        store = dao;
+    }
+
+    private static final class Counters {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long counter) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = counter;
+        }
+    }
+
+    synchronized void seed(long[] counters, int count) {
+        final long[] sorted = Arrays.copyOf(counters, count);
+        Arrays.sort(sorted);
+        long first = 0;
+        int i = 0;
+        while (i < sorted.length && sorted[i] <= first) {
+            if (sorted[i] == first) {
+                first++;
+            }
+            i++;
+        }
+        taken = Arrays.copyOfRange(sorted, i, sorted.length);
+        this.first = first;
+        next = blockEnd = 0;
+    }
+
+    private synchronized long nextCounter() {
+        if (next == blockEnd) {
+            next = store == null ? Math.max(blockEnd, first) : store.reserveCardCounters(first, BLOCK_SIZE);
+            blockEnd = next + BLOCK_SIZE;
+        }
+        return next++;
+    }
+
+    /**
+     * @return a new card number with the Luhn checksum
+     * @throws IllegalStateException when every account number is issued
+     */
+    public String nextCardNumber() {
+        final long[] taken = this.taken;
+        while (true) {
+            final long counter = nextCounter();
+            if (counter >= CAPACITY) {
+                throw new IllegalStateException("All card numbers are issued");
+            }
+            if (Arrays.binarySearch(taken, counter) < 0) {
+                return Account.cardNumber(Account.MIN_ACCOUNT_NUMBER + permute(counter));
+            }
+        }
+    }
+
+    /**
+     * @return an account with a new card and a random pin
+     */
+    public Account newAccount(int id) {
+        return new Account(id, nextCardNumber(), Account.randomPin(), 0);
+    }
+}
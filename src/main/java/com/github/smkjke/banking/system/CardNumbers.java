@@ -0,0 +1,39 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * Card numbers as longs. Our cards have 16 digits and never start with zero,
+ * so a long holds any of them and converting back is just {@link Long#toString(long)}.
+ */
+public final class CardNumbers {
+
+    /**
+     * Returned for strings that can't be one of our card numbers.
+     */
+    public static final long NONE = 0;
+    private static final int MAX_DIGITS = 18;
+
+    private CardNumbers() {
+    }
+
+    /**
+     * @return the card number as a long, or {@link #NONE}
+     */
+    public static long parse(String number) {
+        if (number == null || number.isEmpty() || number.length() > MAX_DIGITS || number.charAt(0) == '0') {
+            return NONE;
+        }
+        long value = 0;
+        for (int i = 0; i < number.length(); i++) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NONE;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    public static String toString(long number) {
+        return Long.toString(number);
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks asynchronously but in submission order per card: a task starts only once every earlier task
+ * touching any of its cards has finished. A waiting task holds no locks and no thread,
+ * it is only chained on the futures of the tasks before it.
+ * <p>
+ * A task is put in line for all its cards at once, under the stripes of its cards taken in ascending order,
+ * so two tasks sharing several cards are ordered the same way on each of them and can't wait for each other.
+ */
+public class CardSequencer {
+
+    private static final int STRIPES = 64;
+
+    // the last task queued for a card, completes normally even if the task failed
+    private final ConcurrentMap<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final Executor executor;
+
+    public CardSequencer(Executor executor) {
+        this.executor = executor;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    private static int stripeOf(String card) {
+        int h = card.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * @param cards cards the task reads or changes
+     * @param task  runs on the executor after the earlier tasks on these cards
+     */
+    public <T> CompletableFuture<T> submit(String[] cards, Supplier<T> task) {
+        final int[] locked = new int[cards.length];
+        for (int i = 0; i < cards.length; i++) {
+            locked[i] = stripeOf(cards[i]);
+        }
+        Arrays.sort(locked);
+        int count = 0;
+        for (int stripe : locked) {
+            if (count == 0 || locked[count - 1] != stripe) {
+                locked[count++] = stripe;
+            }
+        }
+
+        final CompletableFuture<T> result;
+        final CompletableFuture<Void> tail;
+        for (int i = 0; i < count; i++) {
+            stripes[locked[i]].lock();
+        }
+        try {
+            final CompletableFuture<?>[] previous = new CompletableFuture<?>[cards.length];
+            int waitFor = 0;
+            for (String card : cards) {
+                CompletableFuture<Void> last = tails.get(card);
+                if (last != null && !last.isDone()) {
+                    previous[waitFor++] = last;
+                }
+            }
+            final CompletableFuture<Void> start = waitFor == 0
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.allOf(Arrays.copyOf(previous, waitFor));
+            result = start.thenApplyAsync(ignored -> task.get(), executor);
+            tail = result.handle((value, error) -> null);
+            for (String card : cards) {
+                tails.put(card, tail);
+            }
+        } finally {
+            for (int i = count - 1; i >= 0; i--) {
+                stripes[locked[i]].unlock();
+            }
+        }
+        tail.thenRun(() -> {
+            for (String card : cards) {
+                tails.remove(card, tail);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return number of cards with queued or running tasks
+     */
+    public int getBusyCards() {
+        return tails.size();
+    }
+}
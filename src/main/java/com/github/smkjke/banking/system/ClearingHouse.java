@@ -0,0 +1,208 @@
+package com.github.smkjke.banking.system;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects transfers for a short window and settles the whole window with one
+ * {@link AccountDao#transferBatch(List)}. Every card of the window is locked once, and a card gets one
+ * balance update with its net position instead of one per transfer. Small repeated transfers
+ * between the same cards mostly cancel out.
+ * <p>
+ * A window closes when it holds {@code maxTransfers} transfers or when {@code windowMillis} have
+ * passed since its first transfer. Windows settle one after another on the clearing thread, in the
+ * order transfers were submitted. Transfers are checked in that order against the running balances,
+ * so no balance goes negative. A transfer refused for lack of money gets a second pass after the
+ * rest of its window, because money received in the same window may cover it.
+ * <p>
+ * The future of a transfer completes once its window has settled.
+ */
+public class ClearingHouse {
+
+    private static final class Pending {
+        final TransferRequest request;
+        final CompletableFuture<TransferStatus> result = new CompletableFuture<>();
+
+        Pending(TransferRequest request) {
+            this.request = request;
+        }
+    }
+
+    private final AccountDao dao;
+    private final int maxTransfers;
+    private final long windowNanos;
+    private final Metrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Thread clearingThread;
+    // guarded by lock
+    private List<Pending> window = new ArrayList<>();
+    private long windowStart;
+    private boolean closed;
+
+    public ClearingHouse(AccountDao dao, int maxTransfers, long windowMillis) {
+        this(dao, maxTransfers, windowMillis, Metrics.NOOP);
+    }
+
+    /**
+     * @param maxTransfers closes a window at this many transfers
+     * @param windowMillis closes a window this long after its first transfer
+     * @param metrics      records "clearing.settle" and "clearing.window" times and counts the windows
+     *                     needing a second pass as "clearing.second_pass"
+     */
+    public ClearingHouse(AccountDao dao, int maxTransfers, long windowMillis, Metrics metrics) {
+        if (maxTransfers < 1 || windowMillis < 0) {
+            throw new IllegalArgumentException("Wrong clearing window " + maxTransfers + " transfers, " + windowMillis + " ms");
+        }
+        this.dao = dao;
+        this.maxTransfers = maxTransfers;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.metrics = metrics;
+        clearingThread = new Thread(this::run, "clearing");
+        clearingThread.setDaemon(true);
+        clearingThread.start();
+    }
+
+    /**
+     * @return completes with the status of the transfer once its window has settled
+     */
+    public CompletableFuture<TransferStatus> submit(String senderCardNum, String receiverCardNum, int amount) {
+        final Pending pending = new Pending(new TransferRequest(senderCardNum, receiverCardNum, amount));
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Clearing house is closed");
+            }
+            if (window.isEmpty()) {
+                windowStart = System.nanoTime();
+                changed.signal();
+            }
+            window.add(pending);
+            if (window.size() >= maxTransfers) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return pending.result;
+    }
+
+    /**
+     * Settles the transfers submitted so far and stops the clearing thread.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            clearingThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            final List<Pending> settling;
+            lock.lock();
+            try {
+                while (!windowClosed()) {
+                    if (window.isEmpty()) {
+                        if (closed) {
+                            return;
+                        }
+                        changed.awaitUninterruptibly();
+                    } else {
+                        try {
+                            changed.awaitNanos(windowStart + windowNanos - System.nanoTime());
+                        } catch (InterruptedException e) {
+                            // only close() stops the clearing thread
+                        }
+                    }
+                }
+                settling = window;
+                window = new ArrayList<>();
+                metrics.recordTime("clearing.window", System.nanoTime() - windowStart);
+            } finally {
+                lock.unlock();
+            }
+            settle(settling);
+        }
+    }
+
+    // called under lock
+    private boolean windowClosed() {
+        return !window.isEmpty()
+                && (closed || window.size() >= maxTransfers || System.nanoTime() - windowStart >= windowNanos);
+    }
+
+    private void settle(List<Pending> settling) {
+        final long start = System.nanoTime();
+        try {
+            final List<TransferRequest> requests = new ArrayList<>(settling.size());
+            for (Pending pending : settling) {
+                requests.add(pending.request);
+            }
+            final List<TransferStatus> statuses = new ArrayList<>(dao.transferBatch(requests));
+            secondPass(requests, statuses);
+            for (int i = 0; i < settling.size(); i++) {
+                settling.get(i).result.complete(statuses.get(i));
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            for (Pending pending : settling) {
+                pending.result.complete(TransferStatus.FAILED);
+            }
+        } finally {
+            metrics.recordTime("clearing.settle", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Tries the refused transfers again if their sender received money in the window.
+     * If the second batch fails, the retried transfers fail and the rest keep their first pass statuses.
+     */
+    private void secondPass(List<TransferRequest> requests, List<TransferStatus> statuses) {
+        final Set<String> credited = new HashSet<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (statuses.get(i) == TransferStatus.OK) {
+                credited.add(requests.get(i).getReceiverCardNumber());
+            }
+        }
+        final List<Integer> retried = new ArrayList<>();
+        final List<TransferRequest> retries = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (statuses.get(i) == TransferStatus.INSUFFICIENT_FUNDS
+                    && credited.contains(requests.get(i).getSenderCardNumber())) {
+                retried.add(i);
+                retries.add(requests.get(i));
+            }
+        }
+        if (retries.isEmpty()) {
+            return;
+        }
+        metrics.increment("clearing.second_pass");
+        List<TransferStatus> retriedStatuses;
+        try {
+            retriedStatuses = dao.transferBatch(retries);
+        } catch (RuntimeException e) {
+            // the first pass is committed, only the retried transfers are lost
+            e.printStackTrace();
+            retriedStatuses = Collections.nCopies(retries.size(), TransferStatus.FAILED);
+        }
+        for (int k = 0; k < retried.size(); k++) {
+            statuses.set(retried.get(k), retriedStatuses.get(k));
+        }
+    }
+}
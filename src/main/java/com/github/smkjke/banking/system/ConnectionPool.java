@@ -0,0 +1,430 @@
+package com.github.smkjke.banking.system;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Connections handed out by {@link #getConnection()} go back to the pool on close(),
+ * prepared statements are cached per physical connection and survive close() as well.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+    // off, tracing fills in a stack trace on every borrow
+    public static final long DEFAULT_LEAK_THRESHOLD_MS = 0;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+
+    private final String url;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    // LIFO, so the most recently used connections are reused first and the rest can go idle
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    // bumped with every change of the session settings, connections catch up when they are borrowed
+    private volatile int sessionVersion;
+    private volatile String[] sessionSql = new String[0];
+
+    public ConnectionPool(String url) {
+        this(url, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_LEAK_THRESHOLD_MS, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * @param url                JDBC url of the database
+     * @param maxSize            maximum number of open connections
+     * @param idleTimeoutMs      idle connections older than this are closed, 0 to keep them forever
+     * @param leakThresholdMs    connections borrowed for longer than this are reported as leaked with the stack
+     *                           trace of the borrow, 0 to disable, meant for debugging since every borrow
+     *                           then records its stack trace
+     * @param statementCacheSize number of prepared statements cached per connection
+     */
+    public ConnectionPool(String url, int maxSize, long idleTimeoutMs, long leakThresholdMs, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        long period = housekeepingPeriod(idleTimeoutMs, leakThresholdMs);
+        if (period > 0) {
+            housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "connection-pool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            housekeeper.scheduleWithFixedDelay(this::housekeeping, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            housekeeper = null;
+        }
+    }
+
+    private static long housekeepingPeriod(long idleTimeoutMs, long leakThresholdMs) {
+        long period = 0;
+        if (idleTimeoutMs > 0) {
+            period = idleTimeoutMs;
+        }
+        if (leakThresholdMs > 0) {
+            period = period == 0 ? leakThresholdMs : Math.min(period, leakThresholdMs);
+        }
+        return period / 2;
+    }
+
+    /**
+     * Borrows a connection, waiting if all of them are in use.
+     * The caller must close it to give it back to the pool.
+     *
+     * @return the Connection object
+     * @throws SQLException if the pool is closed, exhausted for too long or the database is unreachable
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a connection, pool size " + maxSize);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection pooled = pollIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url));
+            }
+            try {
+                pooled.configure();
+            } catch (SQLException e) {
+                pooled.closePhysical();
+                throw e;
+            }
+            return pooled.borrow();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection pollIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null || pooled.isUsable()) {
+                return pooled;
+            }
+            pooled.closePhysical();
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            if (!closed && pooled.reset()) {
+                pooled.lastUsed = System.currentTimeMillis();
+                synchronized (idle) {
+                    idle.addFirst(pooled);
+                }
+            } else {
+                pooled.closePhysical();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+        if (idleTimeoutMs > 0) {
+            synchronized (idle) {
+                Iterator<PooledConnection> it = idle.descendingIterator();
+                while (it.hasNext()) {
+                    PooledConnection pooled = it.next();
+                    if (now - pooled.lastUsed < idleTimeoutMs) {
+                        break;
+                    }
+                    it.remove();
+                    pooled.closePhysical();
+                }
+            }
+        }
+        if (leakThresholdMs > 0) {
+            for (PooledConnection pooled : borrowed) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMs) {
+                    pooled.leakReported = true;
+                    System.out.println("Possible connection leak, borrowed " + (now - pooled.borrowedAt) + " ms ago");
+                    if (pooled.borrowTrace != null) {
+                        pooled.borrowTrace.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens every connection the pool may hold and prepares the statements on each, so they are in the
+     * statement caches before the first request. Connections still go idle after the idle timeout.
+     */
+    public void warmUp(String... statements) throws SQLException {
+        final Connection[] connections = new Connection[maxSize];
+        try {
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = getConnection();
+                for (String sql : statements) {
+                    connections[i].prepareStatement(sql).close();
+                }
+            }
+        } finally {
+            for (Connection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets up every session of the pool with the statements, e.g. SET LOCK_TIMEOUT.
+     * Connections already open run them the next time they are borrowed.
+     */
+    public synchronized void setSessionSql(String... sql) {
+        sessionSql = sql.clone();
+        sessionVersion++;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Closes idle connections, borrowed ones are closed as soon as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (housekeeper != null) {
+            housekeeper.shutdownNow();
+        }
+        synchronized (idle) {
+            for (PooledConnection pooled : idle) {
+                pooled.closePhysical();
+            }
+            idle.clear();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Physical connection together with its statement cache.
+     */
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private final Map<String, PreparedStatement> statements;
+        private volatile long borrowedAt;
+        private volatile Throwable borrowTrace;
+        private volatile boolean leakReported;
+        private long lastUsed;
+        private int configuredVersion;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        // called while borrowing, before anyone else uses the connection
+        void configure() throws SQLException {
+            final int version = sessionVersion;
+            final String[] sql = sessionSql;
+            if (configuredVersion == version) {
+                return;
+            }
+            try (Statement statement = physical.createStatement()) {
+                for (String setting : sql) {
+                    statement.execute(setting);
+                }
+            }
+            configuredVersion = version;
+        }
+
+        Connection borrow() {
+            borrowedAt = System.currentTimeMillis();
+            leakReported = false;
+            borrowTrace = leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+            borrowed.add(this);
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                PreparedStatement real = physical.prepareStatement(sql);
+                statement = (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                            switch (method.getName()) {
+                                case "close":
+                                    // stays open in the cache, only drop what the caller left behind
+                                    real.clearParameters();
+                                    real.clearBatch();
+                                    return null;
+                                case "unwrap":
+                                    return real.unwrap((Class<?>) args[0]);
+                                default:
+                                    return invoke(real, method, args);
+                            }
+                        });
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        boolean isUsable() {
+            try {
+                return !physical.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Brings the connection back to its initial state.
+         *
+         * @return false if the connection is broken and must be discarded
+         */
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+            }
+        }
+
+        private void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.unwrap(PreparedStatement.class).close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * What the caller gets: a view of the pooled connection that is valid until close().
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has been returned to the pool.");
+            }
+            if ("prepareStatement".equals(method.getName()) && args.length == 1) {
+                return pooled.prepare((String) args[0]);
+            }
+            return ConnectionPool.invoke(pooled.physical, method, args);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Base for AccountDao decorators, forwards every call to the wrapped dao.
+ */
+public abstract class ForwardingAccountDao implements AccountDao {
+
+    protected final AccountDao delegate;
+
+    protected ForwardingAccountDao(AccountDao delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Account get(String cardNum) {
+        return delegate.get(cardNum);
+    }
+
+    @Override
+    public Account lookup(String cardNum) {
+        return delegate.lookup(cardNum);
+    }
+
+    @Override
+    public Map<String, Account> getAll(Collection<String> cardNums) {
+        return delegate.getAll(cardNums);
+    }
+
+    @Override
+    public CardBalances balancesOf(Collection<String> cardNums) {
+        return delegate.balancesOf(cardNums);
+    }
+
+    @Override
+    public boolean create(Account account) {
+        return delegate.create(account);
+    }
+
+    @Override
+    public List<Account> createAll(Collection<Account> accounts) {
+        return delegate.createAll(accounts);
+    }
+
+    @Override
+    public void update(int accountId, int amount) {
+        delegate.update(accountId, amount);
+    }
+
+    @Override
+    public TransferStatus transfer(Account sender, Account receiver, int amount) {
+        return delegate.transfer(sender, receiver, amount);
+    }
+
+    @Override
+    public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+        return delegate.transferBatch(requests);
+    }
+
+    @Override
+    public void delete(int accountId) {
+        delegate.delete(accountId);
+    }
+
+    @Override
+    public void forEachCardNumber(Consumer<String> consumer) {
+        delegate.forEachCardNumber(consumer);
+    }
+
+    @Override
+    public long reserveCardCounters(long from, int count) {
+        return delegate.reserveCardCounters(from, count);
+    }
+
+    @Override
+    public void forEachAccount(Consumer<Account> consumer) {
+        delegate.forEachAccount(consumer);
+    }
+
+    @Override
+    public List<HistoryEntry> history(String cardNum, HistoryEntry after, int limit) {
+        return delegate.history(cardNum, after, limit);
+    }
+
+    @Override
+    public boolean splitBalance(String cardNum, int slots) {
+        return delegate.splitBalance(cardNum, slots);
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.smkjke.banking.system;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * One money movement of a card, see {@link AccountDao#history(String, HistoryEntry, int)}.
+ */
+public class HistoryEntry {
+
+    public enum Kind {
+        INCOME,
+        TRANSFER,
+        // the sender gets back a cross shard transfer that couldn't be credited
+        REFUND
+    }
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final long id;
+    private final String cardNumber;
+    private final Kind kind;
+    private final String counterpart;
+    private final int amount;
+    private final Instant time;
+
+    /**
+     * @param counterpart the other card of a transfer, null for an income
+     * @param amount      negative when money left the card
+     */
+    public HistoryEntry(long id, String cardNumber, Kind kind, String counterpart, int amount, Instant time) {
+        this.id = id;
+        this.cardNumber = cardNumber;
+        this.kind = kind;
+        this.counterpart = counterpart;
+        this.amount = amount;
+        this.time = time;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getCardNumber() {
+        return cardNumber;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getCounterpart() {
+        return counterpart;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return TIME_FORMAT.format(time) + " " + kind.name().toLowerCase() + " "
+                + (amount > 0 ? "+" : "") + amount + (counterpart == null ? "" : " " + counterpart);
+    }
+}
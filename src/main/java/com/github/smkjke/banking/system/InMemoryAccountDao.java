@@ -0,0 +1,750 @@
+package com.github.smkjke.banking.system;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps all accounts in memory. Nothing survives a restart unless a {@link LedgerJournal} is attached,
+ * then every change is journaled and the accounts are rebuilt from the journal on the next start.
+ * <p>
+ * Accounts live in slots of fixed size chunks, so growing the storage never moves a balance.
+ * Card numbers are kept as longs and mapped to slots by a primitive hash map.
+ * Balances are guarded by lock stripes chosen by slot, a transfer takes its stripes in ascending order,
+ * so two transfers can't deadlock. The structure lock only guards the indexes and is taken for reading
+ * optimistically, so transfers don't contend on it.
+ * <p>
+ * Journal records are appended while the changed balances are still locked, so the journal order
+ * matches the order the changes depend on each other. Waiting for the fsync happens after unlocking.
+ * <p>
+ * The history of a card is kept next to its balance in primitive arrays and dropped with the card.
+ * The journal doesn't keep times, entries rebuilt from it carry the time of the replay.
+ */
+public class InMemoryAccountDao implements AccountDao {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int NO_SLOT = -1;
+    // createAll lets readers in between that many accounts
+    private static final int CREATE_ALL_CHUNK = 4096;
+    private static final int DEFAULT_STRIPES = Runtime.getRuntime().availableProcessors() * 64;
+
+    private static final class Chunk {
+        final long[] numbers = new long[CHUNK_SIZE];
+        final int[] owners = new int[CHUNK_SIZE];
+        final int[] balances = new int[CHUNK_SIZE];
+        final String[] pins = new String[CHUNK_SIZE];
+        final int[] nextByOwner = new int[CHUNK_SIZE];
+        final CardHistory[] histories = new CardHistory[CHUNK_SIZE];
+    }
+
+    private static final HistoryEntry.Kind[] KINDS = HistoryEntry.Kind.values();
+
+    /**
+     * Entries of one card in the order they were added, guarded by the stripe of the card.
+     */
+    private static final class CardHistory {
+        long[] ids = new long[4];
+        long[] times = new long[4];
+        long[] counterparts = new long[4];
+        int[] amounts = new int[4];
+        byte[] kinds = new byte[4];
+        int size;
+
+        void add(long id, long time, HistoryEntry.Kind kind, long counterpart, int amount) {
+            if (size == ids.length) {
+                final int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                times = Arrays.copyOf(times, capacity);
+                counterparts = Arrays.copyOf(counterparts, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+            }
+            ids[size] = id;
+            times[size] = time;
+            counterparts[size] = counterpart;
+            amounts[size] = amount;
+            kinds[size] = (byte) kind.ordinal();
+            size++;
+        }
+
+        // ids only grow, so the entries are sorted by id
+        List<HistoryEntry> page(String card, HistoryEntry after, int limit) {
+            int end = size;
+            if (after != null) {
+                final int found = Arrays.binarySearch(ids, 0, size, after.getId());
+                end = found >= 0 ? found : -found - 1;
+            }
+            final List<HistoryEntry> entries = new ArrayList<>(Math.min(limit, end));
+            for (int k = end - 1; k >= 0 && entries.size() < limit; k--) {
+                entries.add(new HistoryEntry(ids[k], card, KINDS[kinds[k]],
+                        counterparts[k] == CardNumbers.NONE ? null : CardNumbers.toString(counterparts[k]),
+                        amounts[k], Instant.ofEpochMilli(times[k])));
+            }
+            return entries;
+        }
+    }
+
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private final StampedLock structure = new StampedLock();
+    // guarded by structure
+    private final LongIntHashMap slotByCard = new LongIntHashMap();
+    private final LongIntHashMap firstSlotByOwner = new LongIntHashMap();
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int usedSlots;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    private volatile TransferHook transferHook = TransferHook.NONE;
+    private final LedgerJournal journal;
+    private final AtomicLong historyIds = new AtomicLong();
+    // card number counters reserved so far, a reopened journal is seeded from its cards instead
+    private final AtomicLong cardCounters = new AtomicLong();
+
+    public InMemoryAccountDao() {
+        this(DEFAULT_STRIPES, null);
+    }
+
+    /**
+     * Restores the accounts from the journal and keeps journaling changes into it.
+     *
+     * @throws IllegalStateException if the journal doesn't replay, e.g. a transfer is refused
+     */
+    public InMemoryAccountDao(LedgerJournal journal) {
+        this(DEFAULT_STRIPES, journal);
+    }
+
+    /**
+     * @param stripes number of balance locks, rounded up to a power of two
+     * @param journal where changes are journaled, null to keep accounts in memory only
+     */
+    public InMemoryAccountDao(int stripes, LedgerJournal journal) {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.stripeMask = count - 1;
+        if (journal != null) {
+            replay(journal);
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * Opens the journal in the given directory and restores the accounts from it.
+     */
+    public static InMemoryAccountDao open(Path journalDirectory) {
+        return new InMemoryAccountDao(new LedgerJournal(journalDirectory));
+    }
+
+    private void replay(LedgerJournal source) {
+        source.replay((type, sequence, card, otherCard, ownerId, amount, pin) -> {
+            switch (type) {
+                case LedgerJournal.CREATE:
+                    create(new Account(ownerId, CardNumbers.toString(card), pin, 0));
+                    break;
+                case LedgerJournal.DELETE:
+                    delete(ownerId);
+                    break;
+                case LedgerJournal.INCOME:
+                    update(ownerId, amount);
+                    break;
+                case LedgerJournal.TRANSFER:
+                    TransferStatus status = transfer(new Account(0, CardNumbers.toString(card), null, 0),
+                            new Account(0, CardNumbers.toString(otherCard), null, 0), amount);
+                    if (status != TransferStatus.OK) {
+                        // only transfers that went through are journaled, the journal doesn't add up
+                        throw new IllegalStateException("Journaled transfer " + sequence + " replayed as " + status);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record " + type + ", sequence " + sequence);
+            }
+        });
+    }
+
+    /**
+     * @return sequence to wait for, 0 if there is no journal
+     */
+    private long journal(byte type, long card, long otherCard, int ownerId, int amount, String pin) {
+        return journal == null ? 0 : journal.append(type, card, otherCard, ownerId, amount, pin);
+    }
+
+    private void awaitDurable(long sequence) {
+        if (sequence > 0) {
+            journal.awaitDurable(sequence);
+        }
+    }
+
+    public void setTransferHook(TransferHook transferHook) {
+        this.transferHook = transferHook == null ? TransferHook.NONE : transferHook;
+    }
+
+    private Chunk chunk(int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private ReentrantLock stripe(int slot) {
+        return stripes[slot & stripeMask];
+    }
+
+    // called with the stripe of the slot locked
+    private void addHistory(int slot, HistoryEntry.Kind kind, long counterpart, int amount, long time) {
+        final Chunk chunk = chunk(slot);
+        final int i = slot & CHUNK_MASK;
+        CardHistory history = chunk.histories[i];
+        if (history == null) {
+            history = new CardHistory();
+            chunk.histories[i] = history;
+        }
+        history.add(historyIds.incrementAndGet(), time, kind, counterpart, amount);
+    }
+
+    private int slotOf(long card) {
+        long stamp = structure.tryOptimisticRead();
+        int slot = slotByCard.get(card);
+        if (!structure.validate(stamp)) {
+            stamp = structure.readLock();
+            try {
+                slot = slotByCard.get(card);
+            } finally {
+                structure.unlockRead(stamp);
+            }
+        }
+        return slot;
+    }
+
+    @Override
+    public Account get(String cardNum) {
+        final long card = CardNumbers.parse(cardNum);
+        if (card == CardNumbers.NONE) {
+            return null;
+        }
+        final int slot = slotOf(card);
+        if (slot == LongIntHashMap.MISSING) {
+            return null;
+        }
+        final ReentrantLock lock = stripe(slot);
+        lock.lock();
+        try {
+            final Chunk chunk = chunk(slot);
+            final int i = slot & CHUNK_MASK;
+            if (chunk.numbers[i] != card) {
+                // deleted meanwhile
+                return null;
+            }
+            return new Account(chunk.owners[i], cardNum, chunk.pins[i], chunk.balances[i]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Account> getAll(Collection<String> cardNums) {
+        final Map<String, Account> accounts = new HashMap<>();
+        readAll(cardNums, (cardNum, card, chunk, i) ->
+                accounts.put(cardNum, new Account(chunk.owners[i], cardNum, chunk.pins[i], chunk.balances[i])));
+        return accounts;
+    }
+
+    @Override
+    public CardBalances balancesOf(Collection<String> cardNums) {
+        final CardBalances balances = new CardBalances(cardNums.size());
+        readAll(cardNums, (cardNum, card, chunk, i) -> balances.put(card, chunk.balances[i]));
+        return balances;
+    }
+
+    private interface SlotReader {
+        void read(String cardNum, long card, Chunk chunk, int i);
+    }
+
+    /**
+     * Locks the stripes of all the cards at once, like {@link #update(int, int)}, so no transfer
+     * is half seen. The structure read lock keeps the slots from being deleted meanwhile.
+     */
+    private void readAll(Collection<String> cardNums, SlotReader reader) {
+        final String[] names = new String[cardNums.size()];
+        final long[] cards = new long[names.length];
+        final int[] slots = new int[names.length];
+        final long stamp = structure.readLock();
+        try {
+            int count = 0;
+            for (String cardNum : cardNums) {
+                final long card = CardNumbers.parse(cardNum);
+                final int slot = card == CardNumbers.NONE ? LongIntHashMap.MISSING : slotByCard.get(card);
+                if (slot != LongIntHashMap.MISSING) {
+                    names[count] = cardNum;
+                    cards[count] = card;
+                    slots[count++] = slot;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+            final int[] locked = lockStripes(slots, count);
+            try {
+                for (int k = 0; k < count; k++) {
+                    final Chunk chunk = chunk(slots[k]);
+                    final int i = slots[k] & CHUNK_MASK;
+                    if (chunk.numbers[i] == cards[k]) {
+                        reader.read(names[k], cards[k], chunk, i);
+                    }
+                }
+            } finally {
+                unlockStripes(locked);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    private static long parseNewCard(Account account) {
+        final long card = CardNumbers.parse(account.getCardNumber());
+        if (card == CardNumbers.NONE) {
+            throw new IllegalArgumentException("Unsupported card number " + account.getCardNumber());
+        }
+        return card;
+    }
+
+    @Override
+    public boolean create(Account account) {
+        final long card = parseNewCard(account);
+        final long sequence;
+        final long stamp = structure.writeLock();
+        try {
+            if (slotByCard.containsKey(card)) {
+                return false;
+            }
+            sequence = insert(account, card);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public List<Account> createAll(Collection<Account> accounts) {
+        final long[] cards = new long[accounts.size()];
+        int index = 0;
+        for (Account account : accounts) {
+            cards[index++] = parseNewCard(account);
+        }
+
+        final List<Account> created = new ArrayList<>(accounts.size());
+        long sequence = 0;
+        index = 0;
+        long stamp = structure.writeLock();
+        try {
+            for (Account account : accounts) {
+                if (index > 0 && index % CREATE_ALL_CHUNK == 0) {
+                    structure.unlockWrite(stamp);
+                    stamp = structure.writeLock();
+                }
+                final long card = cards[index++];
+                if (!slotByCard.containsKey(card)) {
+                    sequence = insert(account, card);
+                    created.add(account);
+                }
+            }
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+        awaitDurable(sequence);
+        return created;
+    }
+
+    /**
+     * Called under the structure write lock for a card that doesn't exist.
+     *
+     * @return journal sequence of the creation
+     */
+    private long insert(Account account, long card) {
+        final int slot = allocateSlot();
+        final int firstOfOwner = firstSlotByOwner.get(account.getId());
+        final ReentrantLock lock = stripe(slot);
+        lock.lock();
+        try {
+            final Chunk chunk = chunk(slot);
+            final int i = slot & CHUNK_MASK;
+            chunk.owners[i] = account.getId();
+            chunk.pins[i] = account.getPinCode();
+            chunk.balances[i] = 0;
+            chunk.nextByOwner[i] = firstOfOwner == LongIntHashMap.MISSING ? NO_SLOT : firstOfOwner;
+            chunk.numbers[i] = card;
+        } finally {
+            lock.unlock();
+        }
+        firstSlotByOwner.put(account.getId(), slot);
+        slotByCard.put(card, slot);
+        return journal(LedgerJournal.CREATE, card, 0, account.getId(), 0, account.getPinCode());
+    }
+
+    // called under the structure write lock
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        final int slot = usedSlots++;
+        if ((slot >>> CHUNK_BITS) == chunks.length) {
+            Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new Chunk();
+            chunks = grown;
+        }
+        return slot;
+    }
+
+    @Override
+    public void update(int accountId, int amount) {
+        final long sequence;
+        final long stamp = structure.readLock();
+        try {
+            int[] slots = new int[4];
+            int count = 0;
+            for (int slot = firstSlotByOwner.get(accountId); slot != LongIntHashMap.MISSING && slot != NO_SLOT; ) {
+                if (count == slots.length) {
+                    slots = Arrays.copyOf(slots, count * 2);
+                }
+                slots[count++] = slot;
+                slot = chunk(slot).nextByOwner[slot & CHUNK_MASK];
+            }
+            if (count == 0) {
+                return;
+            }
+
+            final long time = System.currentTimeMillis();
+            final int[] locked = lockStripes(slots, count);
+            try {
+                for (int k = 0; k < count; k++) {
+                    chunk(slots[k]).balances[slots[k] & CHUNK_MASK] += amount;
+                    addHistory(slots[k], HistoryEntry.Kind.INCOME, CardNumbers.NONE, amount, time);
+                }
+                sequence = journal(LedgerJournal.INCOME, 0, 0, accountId, amount, null);
+            } finally {
+                unlockStripes(locked);
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Locks stripes of the given slots in ascending order, every stripe once.
+     *
+     * @return the locked stripes for {@link #unlockStripes(int[])}
+     */
+    private int[] lockStripes(int[] slots, int count) {
+        final int[] order = new int[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = slots[k] & stripeMask;
+        }
+        Arrays.sort(order);
+        int distinct = 0;
+        for (int k = 0; k < count; k++) {
+            if (k == 0 || order[k] != order[k - 1]) {
+                order[distinct++] = order[k];
+            }
+        }
+        final int[] locked = Arrays.copyOf(order, distinct);
+        int acquired = 0;
+        try {
+            for (; acquired < locked.length; acquired++) {
+                stripes[locked[acquired]].lock();
+            }
+        } finally {
+            if (acquired < locked.length) {
+                unlockStripes(Arrays.copyOf(locked, acquired));
+            }
+        }
+        return locked;
+    }
+
+    private void unlockStripes(int[] locked) {
+        for (int k = locked.length - 1; k >= 0; k--) {
+            stripes[locked[k]].unlock();
+        }
+    }
+
+    @Override
+    public TransferStatus transfer(Account sender, Account receiver, int amount) {
+        final TransferHook hook = transferHook;
+        try {
+            hook.beforeStart(sender, receiver);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TransferStatus.FAILED;
+        }
+
+        final long senderCard = CardNumbers.parse(sender.getCardNumber());
+        final long receiverCard = CardNumbers.parse(receiver.getCardNumber());
+        final int senderSlot = senderCard == CardNumbers.NONE ? LongIntHashMap.MISSING : slotOf(senderCard);
+        final int receiverSlot = receiverCard == CardNumbers.NONE ? LongIntHashMap.MISSING : slotOf(receiverCard);
+        if (senderSlot == LongIntHashMap.MISSING || receiverSlot == LongIntHashMap.MISSING) {
+            return TransferStatus.CARD_NOT_FOUND;
+        }
+
+        long sequence = 0;
+        // to avoid deadlock
+        final ReentrantLock first = stripe(Math.min(senderSlot & stripeMask, receiverSlot & stripeMask));
+        final ReentrantLock second = stripe(Math.max(senderSlot & stripeMask, receiverSlot & stripeMask));
+        first.lock();
+        second.lock();
+        try {
+            final Chunk senderChunk = chunk(senderSlot);
+            final Chunk receiverChunk = chunk(receiverSlot);
+            final int s = senderSlot & CHUNK_MASK;
+            final int r = receiverSlot & CHUNK_MASK;
+            if (senderChunk.numbers[s] != senderCard || receiverChunk.numbers[r] != receiverCard) {
+                return TransferStatus.CARD_NOT_FOUND;
+            }
+            hook.afterLock(sender, receiver);
+
+            if (senderChunk.balances[s] < amount) {
+                return TransferStatus.INSUFFICIENT_FUNDS;
+            }
+            senderChunk.balances[s] -= amount;
+            try {
+                hook.afterDebit(sender, receiver);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                senderChunk.balances[s] += amount;
+                return TransferStatus.FAILED;
+            }
+            receiverChunk.balances[r] += amount;
+            final long time = System.currentTimeMillis();
+            addHistory(senderSlot, HistoryEntry.Kind.TRANSFER, receiverCard, -amount, time);
+            addHistory(receiverSlot, HistoryEntry.Kind.TRANSFER, senderCard, amount, time);
+            sequence = journal(LedgerJournal.TRANSFER, senderCard, receiverCard, 0, amount, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TransferStatus.FAILED;
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+        awaitDurable(sequence);
+        return TransferStatus.OK;
+    }
+
+    @Override
+    public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+        final long[] senderCards = new long[requests.size()];
+        final long[] receiverCards = new long[requests.size()];
+        final int[] slots = new int[requests.size() * 2];
+        for (int k = 0; k < requests.size(); k++) {
+            final TransferRequest request = requests.get(k);
+            senderCards[k] = CardNumbers.parse(request.getSenderCardNumber());
+            receiverCards[k] = CardNumbers.parse(request.getReceiverCardNumber());
+            slots[2 * k] = slotOf(senderCards[k]);
+            slots[2 * k + 1] = slotOf(receiverCards[k]);
+        }
+
+        final List<TransferStatus> statuses = new ArrayList<>(requests.size());
+        long sequence = 0;
+        final long time = System.currentTimeMillis();
+        final int[] locked = lockStripes(slots, slots.length);
+        try {
+            for (int k = 0; k < requests.size(); k++) {
+                final int senderSlot = slots[2 * k];
+                final int receiverSlot = slots[2 * k + 1];
+                if (senderSlot == LongIntHashMap.MISSING || receiverSlot == LongIntHashMap.MISSING
+                        || chunk(senderSlot).numbers[senderSlot & CHUNK_MASK] != senderCards[k]
+                        || chunk(receiverSlot).numbers[receiverSlot & CHUNK_MASK] != receiverCards[k]) {
+                    statuses.add(TransferStatus.CARD_NOT_FOUND);
+                    continue;
+                }
+                final int amount = requests.get(k).getAmount();
+                final int[] senderBalances = chunk(senderSlot).balances;
+                if (senderBalances[senderSlot & CHUNK_MASK] < amount) {
+                    statuses.add(TransferStatus.INSUFFICIENT_FUNDS);
+                    continue;
+                }
+                senderBalances[senderSlot & CHUNK_MASK] -= amount;
+                chunk(receiverSlot).balances[receiverSlot & CHUNK_MASK] += amount;
+                addHistory(senderSlot, HistoryEntry.Kind.TRANSFER, receiverCards[k], -amount, time);
+                addHistory(receiverSlot, HistoryEntry.Kind.TRANSFER, senderCards[k], amount, time);
+                sequence = journal(LedgerJournal.TRANSFER, senderCards[k], receiverCards[k], 0, amount, null);
+                statuses.add(TransferStatus.OK);
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        awaitDurable(sequence);
+        return statuses;
+    }
+
+    @Override
+    public void delete(int accountId) {
+        final long sequence;
+        final long stamp = structure.writeLock();
+        try {
+            int slot = firstSlotByOwner.remove(accountId);
+            if (slot == LongIntHashMap.MISSING) {
+                return;
+            }
+            while (slot != LongIntHashMap.MISSING && slot != NO_SLOT) {
+                final Chunk chunk = chunk(slot);
+                final int i = slot & CHUNK_MASK;
+                final ReentrantLock lock = stripe(slot);
+                lock.lock();
+                try {
+                    slotByCard.remove(chunk.numbers[i]);
+                    chunk.numbers[i] = CardNumbers.NONE;
+                    chunk.pins[i] = null;
+                    chunk.balances[i] = 0;
+                    chunk.histories[i] = null;
+                } finally {
+                    lock.unlock();
+                }
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+                slot = chunk.nextByOwner[i];
+            }
+            sequence = journal(LedgerJournal.DELETE, 0, 0, accountId, 0, null);
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Holds the structure read lock while scanning, so cards can't be created or deleted meanwhile.
+     */
+    @Override
+    public void forEachCardNumber(Consumer<String> consumer) {
+        final long stamp = structure.readLock();
+        try {
+            for (int slot = 0; slot < usedSlots; slot++) {
+                final long card = chunk(slot).numbers[slot & CHUNK_MASK];
+                if (card != CardNumbers.NONE) {
+                    consumer.accept(CardNumbers.toString(card));
+                }
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long reserveCardCounters(long from, int count) {
+        while (true) {
+            final long reserved = cardCounters.get();
+            final long first = Math.max(reserved, from);
+            if (cardCounters.compareAndSet(reserved, first + count)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * Locks every stripe for the whole scan to see one snapshot, transfers wait until it's over.
+     */
+    @Override
+    public void forEachAccount(Consumer<Account> consumer) {
+        final long stamp = structure.readLock();
+        try {
+            for (ReentrantLock stripe : stripes) {
+                stripe.lock();
+            }
+            try {
+                for (int slot = 0; slot < usedSlots; slot++) {
+                    final Chunk chunk = chunk(slot);
+                    final int i = slot & CHUNK_MASK;
+                    if (chunk.numbers[i] != CardNumbers.NONE) {
+                        consumer.accept(new Account(chunk.owners[i], CardNumbers.toString(chunk.numbers[i]),
+                                chunk.pins[i], chunk.balances[i]));
+                    }
+                }
+            } finally {
+                for (int i = stripes.length - 1; i >= 0; i--) {
+                    stripes[i].unlock();
+                }
+            }
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public List<HistoryEntry> history(String cardNum, HistoryEntry after, int limit) {
+        final long card = CardNumbers.parse(cardNum);
+        final int slot = card == CardNumbers.NONE ? LongIntHashMap.MISSING : slotOf(card);
+        if (slot == LongIntHashMap.MISSING) {
+            return new ArrayList<>();
+        }
+        final ReentrantLock lock = stripe(slot);
+        lock.lock();
+        try {
+            final Chunk chunk = chunk(slot);
+            final int i = slot & CHUNK_MASK;
+            final CardHistory history = chunk.histories[i];
+            if (chunk.numbers[i] != card || history == null) {
+                return new ArrayList<>();
+            }
+            return history.page(cardNum, after, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Does nothing but check the card. A credit holds the stripe of the card only for the update in memory,
+     * not for a database round trip, so there is no row lock worth splitting.
+     */
+    @Override
+    public boolean splitBalance(String cardNum, int slots) {
+        return get(cardNum) != null;
+    }
+
+    /**
+     * @return number of stored cards
+     */
+    public int size() {
+        final long stamp = structure.readLock();
+        try {
+            return slotByCard.size();
+        } finally {
+            structure.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Flushes and closes the journal if there is one.
+     */
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Removes all accounts, the journal is left as is.
+     */
+    public void clear() {
+        final long stamp = structure.writeLock();
+        try {
+            slotByCard.clear();
+            firstSlotByOwner.clear();
+            chunks = new Chunk[0];
+            usedSlots = 0;
+            freeCount = 0;
+        } finally {
+            structure.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.github.smkjke.banking.system;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of money movements kept in memory-mapped segment files.
+ * <p>
+ * Every operation is a fixed size record, so appending is a copy into the mapped segment.
+ * Durability is group committed: a background thread forces the segment to disk and every
+ * {@link #awaitDurable(long)} caller waiting meanwhile is released by the same fsync.
+ * Replaying the segments in order rebuilds the balances, a torn record at the tail is ignored.
+ * Pages of a mapped segment may reach the disk in any order, so records behind a torn one can survive
+ * a crash. A record only counts if it has the sequence its position in the segment implies, and the
+ * rest of the segment is zeroed before appending continues, so such stale records are never replayed.
+ */
+public class LedgerJournal implements AutoCloseable {
+
+    public static final byte CREATE = 1;
+    public static final byte DELETE = 2;
+    public static final byte INCOME = 3;
+    public static final byte TRANSFER = 4;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    static final int RECORD_SIZE = 128;
+    private static final int HEADER_SIZE = RECORD_SIZE;
+    private static final int MAGIC = 0x4C454447;
+    private static final int FORMAT_VERSION = 1;
+    private static final long BACKGROUND_FLUSH_MS = 1000;
+    private static final String SEGMENT_PREFIX = "ledger-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // segment header: magic, format version, sequence of the first record
+    private static final int FIRST_SEQUENCE = 8;
+
+    // record layout
+    private static final int TYPE = 0;
+    private static final int PIN_LENGTH = 1;
+    private static final int AMOUNT = 4;
+    private static final int SEQUENCE = 8;
+    private static final int TIMESTAMP = 16;
+    private static final int CARD = 24;
+    private static final int OTHER_CARD = 32;
+    private static final int OWNER = 40;
+    private static final int CHECKSUM = 44;
+    private static final int PIN = 48;
+    // the rest of the record, a salted pin hash fits
+    private static final int MAX_PIN_BYTES = RECORD_SIZE - PIN;
+
+    /**
+     * Receives records on replay.
+     */
+    public interface Visitor {
+        void visit(byte type, long sequence, long card, long otherCard, int ownerId, int amount, String pin);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushIntervalMs;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private long nextSequence = 1;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushRequested = flushLock.newCondition();
+    private final Condition flushed = flushLock.newCondition();
+    private long requestedSequence;
+    private long durableSequence;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    public LedgerJournal(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, 0);
+    }
+
+    /**
+     * @param directory       where segments are kept, created if missing
+     * @param segmentSize     size of one segment file in bytes
+     * @param flushIntervalMs how long the flusher waits to collect more records before an fsync,
+     *                        0 to fsync as soon as somebody waits for durability
+     */
+    public LedgerJournal(Path directory, int segmentSize, long flushIntervalMs) {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment is too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize - (segmentSize - HEADER_SIZE) % RECORD_SIZE;
+        this.flushIntervalMs = flushIntervalMs;
+        try {
+            Files.createDirectories(directory);
+            openTail();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        durableSequence = nextSequence - 1;
+        requestedSequence = durableSequence;
+
+        flusher = new Thread(this::flushLoop, "ledger-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * @return sequence of the record, pass it to {@link #awaitDurable(long)}
+     */
+    public long append(byte type, long card, long otherCard, int ownerId, int amount, String pin) {
+        final byte[] pinBytes = pin == null ? new byte[0] : pin.getBytes(StandardCharsets.UTF_8);
+        if (pinBytes.length > MAX_PIN_BYTES) {
+            throw new IllegalArgumentException("Pin doesn't fit into a journal record");
+        }
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed.");
+            }
+            if (segment.remaining() < RECORD_SIZE) {
+                roll();
+            }
+            final long sequence = nextSequence++;
+            record.clear();
+            record.put(TYPE, type)
+                    .put(PIN_LENGTH, (byte) pinBytes.length)
+                    .putInt(AMOUNT, amount)
+                    .putLong(SEQUENCE, sequence)
+                    .putLong(TIMESTAMP, System.currentTimeMillis())
+                    .putLong(CARD, card)
+                    .putLong(OTHER_CARD, otherCard)
+                    .putInt(OWNER, ownerId);
+            for (int i = 0; i < MAX_PIN_BYTES; i++) {
+                record.put(PIN + i, i < pinBytes.length ? pinBytes[i] : 0);
+            }
+            record.putInt(CHECKSUM, checksum(crc, record, 0));
+            segment.put(record.array(), 0, RECORD_SIZE);
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the record with the given sequence is on disk.
+     */
+    public void awaitDurable(long sequence) {
+        flushLock.lock();
+        try {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            if (requestedSequence < sequence) {
+                requestedSequence = sequence;
+                flushRequested.signal();
+            }
+            while (durableSequence < sequence) {
+                if (closed) {
+                    throw new IllegalStateException("Journal is closed.");
+                }
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            flushLock.lock();
+            try {
+                if (requestedSequence <= durableSequence) {
+                    // nobody is waiting, still flush in the background now and then
+                    flushRequested.await(BACKGROUND_FLUSH_MS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                flushLock.unlock();
+            }
+            if (flushIntervalMs > 0) {
+                // let more records join this fsync
+                try {
+                    Thread.sleep(flushIntervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void flush() {
+        final MappedByteBuffer current;
+        final long lastSequence;
+        appendLock.lock();
+        try {
+            current = segment;
+            lastSequence = nextSequence - 1;
+        } finally {
+            appendLock.unlock();
+        }
+        // force() of a mapped buffer doesn't block appends to it
+        current.force();
+
+        flushLock.lock();
+        try {
+            if (lastSequence > durableSequence) {
+                durableSequence = lastSequence;
+            }
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Reads all records in order.
+     *
+     * @return number of visited records
+     */
+    public long replay(Visitor visitor) {
+        long count = 0;
+        try {
+            for (Path file : segments()) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (!validHeader(buffer)) {
+                        continue;
+                    }
+                    final byte[] pin = new byte[MAX_PIN_BYTES];
+                    final CRC32 recordCrc = new CRC32();
+                    long sequence = buffer.getLong(FIRST_SEQUENCE);
+                    for (int offset = HEADER_SIZE; offset + RECORD_SIZE <= buffer.limit(); offset += RECORD_SIZE) {
+                        if (!validRecord(recordCrc, buffer, offset, sequence++)) {
+                            break;
+                        }
+                        final int pinLength = buffer.get(offset + PIN_LENGTH);
+                        for (int i = 0; i < pinLength; i++) {
+                            pin[i] = buffer.get(offset + PIN + i);
+                        }
+                        visitor.visit(buffer.get(offset + TYPE),
+                                buffer.getLong(offset + SEQUENCE),
+                                buffer.getLong(offset + CARD),
+                                buffer.getLong(offset + OTHER_CARD),
+                                buffer.getInt(offset + OWNER),
+                                buffer.getInt(offset + AMOUNT),
+                                pinLength == 0 ? null : new String(pin, 0, pinLength, StandardCharsets.UTF_8));
+                        count++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        flusher.interrupt();
+        flushLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Checksum of the record at the offset, the checksum field itself is skipped.
+     */
+    private static int checksum(CRC32 crc, ByteBuffer buffer, int offset) {
+        ByteBuffer bytes = buffer.duplicate();
+        crc.reset();
+        bytes.limit(offset + CHECKSUM).position(offset);
+        crc.update(bytes);
+        bytes.limit(offset + RECORD_SIZE).position(offset + CHECKSUM + 4);
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static boolean validRecord(CRC32 crc, ByteBuffer buffer, int offset, long sequence) {
+        return buffer.get(offset + TYPE) != 0 && buffer.getLong(offset + SEQUENCE) == sequence
+                && buffer.getInt(offset + CHECKSUM) == checksum(crc, buffer, offset);
+    }
+
+    private static boolean validHeader(ByteBuffer buffer) {
+        return buffer.limit() >= HEADER_SIZE && buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private Path segmentFile(int index) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Finds the end of the last segment and continues appending there.
+     */
+    private void openTail() throws IOException {
+        List<Path> files = segments();
+        if (files.isEmpty()) {
+            segmentIndex = 0;
+            segment = map(segmentFile(segmentIndex), 1);
+            return;
+        }
+        final Path last = files.get(files.size() - 1);
+        final String name = last.getFileName().toString();
+        segmentIndex = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        segment = map(last, 0);
+        if (!validHeader(segment)) {
+            throw new IOException("Not a ledger segment: " + last);
+        }
+        nextSequence = segment.getLong(FIRST_SEQUENCE);
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_SIZE <= segment.limit() && validRecord(crc, segment, offset, nextSequence)) {
+            offset += RECORD_SIZE;
+            nextSequence++;
+        }
+        // a torn record and whatever survived behind it is garbage, new records must not end up between them
+        segment.position(offset);
+        final byte[] zeros = new byte[RECORD_SIZE];
+        boolean dirty = false;
+        for (int garbage = offset; garbage + RECORD_SIZE <= segment.limit(); garbage += RECORD_SIZE) {
+            if (segment.get(garbage + TYPE) != 0) {
+                segment.put(zeros);
+                dirty = true;
+            } else {
+                segment.position(garbage + RECORD_SIZE);
+            }
+        }
+        segment.position(offset);
+        if (dirty) {
+            segment.force();
+        }
+    }
+
+    private void roll() {
+        segment.force();
+        try {
+            segment = map(segmentFile(++segmentIndex), nextSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param firstSequence sequence of the first record for a new segment, 0 to open an existing one
+     */
+    private MappedByteBuffer map(Path file, long firstSequence) throws IOException {
+        final boolean create = firstSequence > 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (create) {
+                raf.setLength(segmentSize);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            if (create) {
+                buffer.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putLong(FIRST_SEQUENCE, firstSequence);
+                buffer.position(HEADER_SIZE);
+                buffer.force();
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long to int without boxing.
+ * Not thread safe, the owner guards it. {@link #get(long)} never fails on a map modified concurrently,
+ * so it can be used under an optimistic read that is validated afterwards.
+ */
+class LongIntHashMap {
+
+    static final int MISSING = -1;
+    private static final long FREE = Long.MIN_VALUE;
+
+    private static final class Table {
+        final long[] keys;
+        final int[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE);
+        }
+    }
+
+    private Table table;
+    private int size;
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        table = new Table(capacity);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the value or {@link #MISSING}
+     */
+    int get(long key) {
+        final Table t = table;
+        final long[] keys = t.keys;
+        final int mask = keys.length - 1;
+        for (int i = slot(key, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long k = keys[i];
+            if (k == key) {
+                return t.values[i];
+            }
+            if (k == FREE) {
+                return MISSING;
+            }
+        }
+        return MISSING;
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * @param value must not be {@link #MISSING}
+     * @return the previous value or {@link #MISSING}
+     */
+    int put(long key, int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Unsupported key " + key);
+        }
+        if ((size + 1) * 4 > table.keys.length * 3) {
+            resize(table.keys.length * 2);
+        }
+        final long[] keys = table.keys;
+        final int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                int previous = table.values[i];
+                table.values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        table.values[i] = value;
+        keys[i] = key;
+        size++;
+        return MISSING;
+    }
+
+    /**
+     * @return the removed value or {@link #MISSING}
+     */
+    int remove(long key) {
+        final long[] keys = table.keys;
+        final int[] values = table.values;
+        final int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == FREE) {
+                return MISSING;
+            }
+            i = (i + 1) & mask;
+        }
+        final int removed = values[i];
+        // backward shift deletion keeps probe sequences intact without tombstones
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != FREE) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[gap] = FREE;
+        size--;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        table = new Table(16);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        final Table old = table;
+        final Table resized = new Table(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < old.keys.length; i++) {
+            long key = old.keys[i];
+            if (key != FREE) {
+                int j = slot(key, mask);
+                while (resized.keys[j] != FREE) {
+                    j = (j + 1) & mask;
+                }
+                resized.keys[j] = key;
+                resized.values[j] = old.values[i];
+            }
+        }
+        table = resized;
+    }
+}
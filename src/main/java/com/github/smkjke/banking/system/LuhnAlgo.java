@@ -3,13 +3,27 @@ package com.github.smkjke.banking.system;
 /**
  * Luhn Algoritm is a simple checksum formula used to validate a variety of identification numbers,
  * such as credit card numbers, IMEI numbers...
+ * <p>
+ * Numbers up to 18 digits are handled as longs, nothing is allocated.
  **/
 
 public class LuhnAlgo {
 
+    private static final int MAX_LONG_DIGITS = 18;
+
     public static int getChecksum(final String mainNumber) {
-        int sum = sum(mainNumber);
-        return sum % 10 == 0 ? 0 : 10 - sum % 10;
+        if (mainNumber.length() <= MAX_LONG_DIGITS) {
+            return getChecksum(parseDigits(mainNumber));
+        }
+        return checksum(sum(mainNumber, true));
+    }
+
+    /**
+     * @param mainNumber card number without the check digit
+     * @return the check digit to append
+     */
+    public static int getChecksum(final long mainNumber) {
+        return checksum(sum(mainNumber, true));
     }
 
     /**
@@ -18,21 +32,90 @@ public class LuhnAlgo {
      * @param cardNumber
      */
     public static boolean isValid(final String cardNumber) {
-        return sum(cardNumber) % 10 == 0;
+        if (cardNumber.length() <= MAX_LONG_DIGITS) {
+            return isValid(parseDigits(cardNumber));
+        }
+        return sum(cardNumber, false) % 10 == 0;
+    }
+
+    /**
+     * Checks cardNumber, including its check digit, for LuhnAlgo validation
+     */
+    public static boolean isValid(final long cardNumber) {
+        return cardNumber >= 0 && sum(cardNumber, false) % 10 == 0;
+    }
+
+    /**
+     * Checks many card numbers at once.
+     *
+     * @return validation result for every number, in the same order
+     */
+    public static boolean[] validate(final long[] cardNumbers) {
+        final boolean[] valid = new boolean[cardNumbers.length];
+        for (int i = 0; i < cardNumbers.length; i++) {
+            valid[i] = isValid(cardNumbers[i]);
+        }
+        return valid;
     }
 
-    private static int sum(String number) {
+    private static int checksum(int sum) {
+        return sum % 10 == 0 ? 0 : 10 - sum % 10;
+    }
+
+    /**
+     * Sums digits from the right, doubling every second one.
+     *
+     * @param doubleLast whether the rightmost digit is doubled, true when the check digit is not there yet
+     */
+    private static int sum(long number, boolean doubleLast) {
         int sum = 0;
-        for (int i = 0; i < number.length(); i++) {
-            int num = Integer.parseInt(String.valueOf(number.charAt(i)));
-            if (i % 2 == 0) {
+        boolean doubled = doubleLast;
+        while (number > 0) {
+            int num = (int) (number % 10);
+            number /= 10;
+            if (doubled) {
                 num *= 2;
+                if (num > 9) {
+                    num -= 9;
+                }
             }
-            if (num > 9) {
-                num -= 9;
+            sum += num;
+            doubled = !doubled;
+        }
+        return sum;
+    }
+
+    private static int sum(String number, boolean doubleLast) {
+        int sum = 0;
+        boolean doubled = doubleLast;
+        for (int i = number.length() - 1; i >= 0; i--) {
+            int num = digit(number, i);
+            if (doubled) {
+                num *= 2;
+                if (num > 9) {
+                    num -= 9;
+                }
             }
             sum += num;
+            doubled = !doubled;
         }
         return sum;
     }
-}
\ No newline at end of file
+
+    // leading zeros don't change the sum, so they may be dropped
+    private static long parseDigits(String number) {
+        long value = 0;
+        for (int i = 0; i < number.length(); i++) {
+            value = value * 10 + digit(number, i);
+        }
+        return value;
+    }
+
+    private static int digit(String number, int i) {
+        int digit = number.charAt(i) - '0';
+        if (digit < 0 || digit > 9) {
+            throw new NumberFormatException("For input string: \"" + number + "\"");
+        }
+        return digit;
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.smkjke.banking.system;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times every dao call as "dao.&lt;method&gt;" and counts transfer outcomes as "transfer.&lt;status&gt;".
+ */
+public class MeteredAccountDao extends ForwardingAccountDao {
+
+    private static final String[] STATUS_COUNTERS = new String[TransferStatus.values().length];
+
+    static {
+        for (TransferStatus status : TransferStatus.values()) {
+            STATUS_COUNTERS[status.ordinal()] = counterName(status);
+        }
+    }
+
+    private final Metrics metrics;
+
+    public MeteredAccountDao(AccountDao delegate, Metrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    static String counterName(TransferStatus status) {
+        return "transfer." + status.name().toLowerCase();
+    }
+
+    @Override
+    public Account get(String cardNum) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.get(cardNum);
+        } finally {
+            metrics.recordTime("dao.get", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Account lookup(String cardNum) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.lookup(cardNum);
+        } finally {
+            metrics.recordTime("dao.lookup", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Map<String, Account> getAll(Collection<String> cardNums) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.getAll(cardNums);
+        } finally {
+            metrics.recordTime("dao.getAll", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public CardBalances balancesOf(Collection<String> cardNums) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.balancesOf(cardNums);
+        } finally {
+            metrics.recordTime("dao.balancesOf", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean create(Account account) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.create(account);
+        } finally {
+            metrics.recordTime("dao.create", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> createAll(Collection<Account> accounts) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.createAll(accounts);
+        } finally {
+            metrics.recordTime("dao.createAll", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void update(int accountId, int amount) {
+        final long start = System.nanoTime();
+        try {
+            delegate.update(accountId, amount);
+        } finally {
+            metrics.recordTime("dao.update", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public TransferStatus transfer(Account sender, Account receiver, int amount) {
+        final long start = System.nanoTime();
+        TransferStatus status = TransferStatus.FAILED;
+        try {
+            status = delegate.transfer(sender, receiver, amount);
+            return status;
+        } finally {
+            metrics.recordTime("dao.transfer", System.nanoTime() - start);
+            metrics.increment(STATUS_COUNTERS[status.ordinal()]);
+        }
+    }
+
+    @Override
+    public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+        final long start = System.nanoTime();
+        List<TransferStatus> statuses = null;
+        try {
+            statuses = delegate.transferBatch(requests);
+            return statuses;
+        } finally {
+            metrics.recordTime("dao.transferBatch", System.nanoTime() - start);
+            if (statuses != null) {
+                for (TransferStatus status : statuses) {
+                    metrics.increment(STATUS_COUNTERS[status.ordinal()]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void delete(int accountId) {
+        final long start = System.nanoTime();
+        try {
+            delegate.delete(accountId);
+        } finally {
+            metrics.recordTime("dao.delete", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<HistoryEntry> history(String cardNum, HistoryEntry after, int limit) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.history(cardNum, after, limit);
+        } finally {
+            metrics.recordTime("dao.history", System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean splitBalance(String cardNum, int slots) {
+        final long start = System.nanoTime();
+        try {
+            return delegate.splitBalance(cardNum, slots);
+        } finally {
+            metrics.recordTime("dao.splitBalance", System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.smkjke.banking.system;
+
+import java.io.PrintStream;
+
+/**
+ * Where the daos report how long things take and how transfers end.
+ * {@link #NOOP} drops everything, {@link RecordingMetrics} keeps latency histograms and counters.
+ */
+public interface Metrics {
+
+    Metrics NOOP = new Metrics() {
+    };
+
+    /**
+     * @param name  operation, e.g. "dao.transfer" or "transfer.lockWait"
+     * @param nanos how long it took
+     */
+    default void recordTime(String name, long nanos) {
+    }
+
+    default void increment(String name) {
+    }
+
+    default boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * Prints everything recorded so far.
+     */
+    default void dump(PrintStream out) {
+        out.println("Metrics are disabled.");
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.smkjke.banking.system;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PINs are stored as "sha256$salt$hash", the SHA-256 of a random salt followed by the PIN, both Base64.
+ * The salt makes equal PINs look different, so a leaked table can't be matched against a precomputed
+ * list of all 10 000 PINs at once. A PIN is checked by hashing it again and comparing in constant time.
+ * <p>
+ * Key stretching wouldn't buy much with 10 000 possible PINs and would slow down bulk provisioning a lot.
+ */
+public final class PinHash {
+
+    private static final String PREFIX = "sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private PinHash() {
+    }
+
+    public static String hash(String pin) {
+        final byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        final Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + base64.encodeToString(salt) + "$" + base64.encodeToString(digest(salt, pin));
+    }
+
+    public static boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    /**
+     * @param stored a hash from {@link #hash(String)}, or a plain PIN stored before PINs were hashed
+     */
+    public static boolean matches(String pin, String stored) {
+        if (pin == null || stored == null) {
+            return false;
+        }
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(pin.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        final int separator = stored.indexOf('$', PREFIX.length());
+        if (separator < 0) {
+            return false;
+        }
+        final Base64.Decoder base64 = Base64.getDecoder();
+        try {
+            final byte[] salt = base64.decode(stored.substring(PREFIX.length(), separator));
+            final byte[] expected = base64.decode(stored.substring(separator + 1));
+            return MessageDigest.isEqual(expected, digest(salt, pin));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] digest(byte[] salt, String pin) {
+        final MessageDigest sha256 = SHA256.get();
+        sha256.update(salt);
+        return sha256.digest(pin.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.smkjke.banking.system;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a {@link LatencyHistogram} per timed operation and a counter per event, created on first use.
+ */
+public class RecordingMetrics implements Metrics {
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordTime(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    @Override
+    public void increment(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Prints counters and then latencies in microseconds, sorted by name.
+     */
+    @Override
+    public void dump(PrintStream out) {
+        out.println("Counters:");
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            out.printf("  %-28s %d%n", counter.getKey(), counter.getValue().sum());
+        }
+        out.println("Latency, us:");
+        out.printf("  %-28s %10s %10s %10s %10s %10s %10s %10s%n",
+                "", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            out.printf("  %-28s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getMean() / 1000,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMax() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.smkjke.banking.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Applies versioned schema migrations in ascending order.
+ * Applied versions are recorded in the schema_version table, so every migration runs once per database.
+ */
+public class SchemaMigrator {
+
+    static final String VERSION_TABLE = "schema_version";
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (" +
+            "version INTEGER PRIMARY KEY," +
+            "description VARCHAR(255)," +
+            "installed TIMESTAMP DEFAULT CURRENT_TIMESTAMP)";
+
+    /**
+     * Single schema change, statements should be idempotent because H2 commits DDL implicitly.
+     */
+    public interface Migration {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private static final class Step {
+        private final int version;
+        private final String description;
+        private final Migration migration;
+
+        Step(int version, String description, Migration migration) {
+            this.version = version;
+            this.description = description;
+            this.migration = migration;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    public SchemaMigrator add(int version, String description, Migration migration) {
+        for (Step step : steps) {
+            if (step.version == version) {
+                throw new IllegalArgumentException("Duplicate migration version " + version);
+            }
+        }
+        steps.add(new Step(version, description, migration));
+        steps.sort(Comparator.comparingInt(step -> step.version));
+        return this;
+    }
+
+    public SchemaMigrator sql(int version, String description, String... statements) {
+        return add(version, description, connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : statements) {
+                    stmt.execute(sql);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the latest known version
+     */
+    public int latestVersion() {
+        return steps.isEmpty() ? 0 : steps.get(steps.size() - 1).version;
+    }
+
+    /**
+     * @return versions not applied to the database yet
+     */
+    public List<Integer> pending(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        List<Integer> pending = new ArrayList<>();
+        for (Step step : steps) {
+            if (step.version > current) {
+                pending.add(step.version);
+            }
+        }
+        return Collections.unmodifiableList(pending);
+    }
+
+    /**
+     * Upgrades the database to the latest version.
+     *
+     * @param connection with autocommit mode enabled
+     * @return number of applied migrations
+     */
+    public int migrate(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        if (current >= latestVersion()) {
+            return 0;
+        }
+
+        int applied = 0;
+        for (Step step : steps) {
+            if (step.version <= current) {
+                continue;
+            }
+            connection.setAutoCommit(false);
+            try {
+                step.migration.apply(connection);
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO " + VERSION_TABLE + " (version, description) VALUES (?, ?)")) {
+                    statement.setInt(1, step.version);
+                    statement.setString(2, step.description);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+                applied++;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("Migration " + step.version + " (" + step.description + ") failed", e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * @return the version the database is at, 0 for a database without migrations
+     */
+    public int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // DDL commits and locks the schema, an existing database starts without it
+            if (!versionTableExists(connection)) {
+                stmt.execute(CREATE_VERSION_TABLE);
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM " + VERSION_TABLE)) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static boolean versionTableExists(Connection connection) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(null, null, VERSION_TABLE.toUpperCase(), null)) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.smkjke.banking.system;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Sessions of logged in cards. Logging in issues a random token, the token then stands for the
+ * authenticated card until it is unused for longer than the time to live, so operations of a session
+ * don't look up and check the card again.
+ */
+public class SessionManager {
+
+    public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final int TOKEN_BYTES = 32;
+    // expired sessions are swept every that many logins
+    private static final int SWEEP_EVERY = 1024;
+
+    private static final class Session {
+        final Account account;
+        volatile long expiresAt;
+
+        Session(Account account, long expiresAt) {
+            this.account = account;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger logins = new AtomicInteger();
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    public SessionManager() {
+        this(DEFAULT_TTL_MS);
+    }
+
+    public SessionManager(long ttlMillis) {
+        this(ttlMillis, System::nanoTime);
+    }
+
+    SessionManager(long ttlMillis, LongSupplier clock) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * @param account the authenticated card, its pin and balance are not kept
+     * @return token of the new session
+     */
+    public String open(Account account) {
+        if (logins.incrementAndGet() % SWEEP_EVERY == 0) {
+            sweep();
+        }
+        final byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        final String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(new Account(account.getId(), account.getCardNumber(), null, 0),
+                clock.getAsLong() + ttlNanos));
+        return token;
+    }
+
+    /**
+     * Extends the session by the time to live.
+     *
+     * @return the card of the session, null if the token is unknown or expired
+     */
+    public Account get(String token) {
+        if (token == null) {
+            return null;
+        }
+        final Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        final long now = clock.getAsLong();
+        if (now - session.expiresAt >= 0) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.expiresAt = now + ttlNanos;
+        return session.account;
+    }
+
+    public void close(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    /**
+     * Ends every session of the owner, e.g. when the account is closed.
+     */
+    public void closeAll(int ownerId) {
+        sessions.values().removeIf(session -> session.account.getId() == ownerId);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void sweep() {
+        final long now = clock.getAsLong();
+        final Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().expiresAt >= 0) {
+                it.remove();
+            }
+        }
+    }
+}
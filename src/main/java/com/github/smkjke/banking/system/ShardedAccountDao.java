@@ -0,0 +1,694 @@
+package com.github.smkjke.banking.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Spreads the cards over several H2 databases by the hash of the card number, so writers don't
+ * contend on one store. A transfer between cards of one shard is an ordinary local transfer.
+ * <p>
+ * A transfer between shards can't be one transaction, it goes through transfer intents instead:
+ * <ol>
+ * <li>the sender's shard debits the sender and records a debit intent in one transaction,</li>
+ * <li>the receiver's shard credits the receiver and records a credit intent with the same id in one transaction,
+ * the id makes this step happen at most once,</li>
+ * <li>both intents are deleted.</li>
+ * </ol>
+ * If the credit can't be done the sender is refunded and the debit intent deleted, again in one transaction.
+ * After a crash {@link #recover()} finishes every transfer whose credit was done and refunds the others.
+ * Meanwhile the money of an unfinished transfer is in the debit intent only, until the credit is done.
+ * Every step writes the history entry of its card, so a refunded transfer shows up on the sender's
+ * statement as the transfer followed by its refund.
+ */
+public class ShardedAccountDao implements AccountDao {
+
+    private static final String INTENT_TABLE = "transfer_intent";
+    private static final String CREATE_INTENT_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + INTENT_TABLE + " (" +
+            "id VARCHAR(36) PRIMARY KEY," +
+            "role CHAR(1) NOT NULL," +
+            "sender VARCHAR(19) NOT NULL," +
+            "receiver VARCHAR(19) NOT NULL," +
+            "amount INTEGER NOT NULL," +
+            "created TIMESTAMP DEFAULT CURRENT_TIMESTAMP)";
+    private static final String DEBIT = "D";
+    private static final String CREDIT = "C";
+    private static final String INSERT_INTENT_SQL = "INSERT INTO " + INTENT_TABLE
+            + " (id, role, sender, receiver, amount) VALUES (?, ?, ?, ?, ?)";
+    private static final String DELETE_INTENT_SQL = "DELETE FROM " + INTENT_TABLE + " WHERE id = ? AND role = ?";
+    private static final String FIND_INTENTS_SQL = "SELECT id, sender, receiver, amount FROM " + INTENT_TABLE
+            + " WHERE role = ?";
+    private static final String FIND_INTENT_SQL = "SELECT amount FROM " + INTENT_TABLE + " WHERE id = ? AND role = ?";
+    // added to a balance, a transfer counts for its cards only once its debit intent is deleted
+    private static final String OPEN_INTENTS_SQL = "(SELECT COALESCE(SUM(CASE i.role WHEN '" + DEBIT
+            + "' THEN i.amount ELSE -i.amount END), 0) FROM " + INTENT_TABLE + " i WHERE (i.role = '" + DEBIT
+            + "' AND i.sender = card.number) OR (i.role = '" + CREDIT + "' AND i.receiver = card.number))";
+    private static final int FORGET_STRIPES = 64;
+    private static final int SNAPSHOT_ATTEMPTS = 4;
+
+    private final AccountDaoImpl[] shards;
+    // cross shard transfers share it, a scan over all shards excludes them so no money is in flight
+    private final ReadWriteLock crossShard = new ReentrantReadWriteLock();
+    private volatile TransferHook transferHook = TransferHook.NONE;
+    // deletions of intents started and finished by card, a snapshot read while one ran for its cards is torn
+    private final AtomicLongArray forgetsStarted = new AtomicLongArray(FORGET_STRIPES);
+    private final AtomicLongArray forgetsFinished = new AtomicLongArray(FORGET_STRIPES);
+
+    /**
+     * Opens or creates the shard files fileName_0 .. fileName_(shards - 1).
+     * The number of shards must not change for existing files, cards are found by it.
+     */
+    public ShardedAccountDao(String fileName, int shards) {
+        this(StorageProfile.file(), fileName, shards);
+    }
+
+    /**
+     * Opens or creates the shard databases name_0 .. name_(shards - 1) of the profile.
+     */
+    public ShardedAccountDao(StorageProfile profile, String name, int shards) {
+        this(open(profile, name, shards));
+    }
+
+    public ShardedAccountDao(AccountDaoImpl... shards) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("No shards");
+        }
+        this.shards = shards;
+        executeOnShards(CREATE_INTENT_TABLE_SQL);
+        recover();
+    }
+
+    private static AccountDaoImpl[] open(StorageProfile profile, String name, int count) {
+        final AccountDaoImpl[] shards = new AccountDaoImpl[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new AccountDaoImpl(profile, name + "_" + i);
+        }
+        return shards;
+    }
+
+    int shardOf(String card) {
+        int h = card.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    private AccountDaoImpl shard(String card) {
+        return shards[shardOf(card)];
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public void setTransferHook(TransferHook transferHook) {
+        this.transferHook = transferHook == null ? TransferHook.NONE : transferHook;
+        for (AccountDaoImpl shard : shards) {
+            shard.setTransferHook(transferHook);
+        }
+    }
+
+    public void setTransferStrategy(TransferStrategy transferStrategy) {
+        for (AccountDaoImpl shard : shards) {
+            shard.setTransferStrategy(transferStrategy);
+        }
+    }
+
+    public void setLockTimeout(long millis) {
+        for (AccountDaoImpl shard : shards) {
+            shard.setLockTimeout(millis);
+        }
+    }
+
+    public void setMetrics(Metrics metrics) {
+        for (AccountDaoImpl shard : shards) {
+            shard.setMetrics(metrics);
+        }
+    }
+
+    @Override
+    public Account get(String cardNum) {
+        return shard(cardNum).get(cardNum);
+    }
+
+    @Override
+    public Account lookup(String cardNum) {
+        return shard(cardNum).lookup(cardNum);
+    }
+
+    /**
+     * Every shard reads its cards and their open intents from one snapshot, without holding transfers back,
+     * see {@link #snapshot(Collection, Supplier)}.
+     */
+    @Override
+    public Map<String, Account> getAll(Collection<String> cardNums) {
+        final List<List<String>> byShard = byShard(cardNums);
+        return snapshot(cardNums, () -> {
+            final Map<String, Account> accounts = new HashMap<>();
+            for (int i = 0; i < shards.length; i++) {
+                if (!byShard.get(i).isEmpty()) {
+                    accounts.putAll(shards[i].getAll(byShard.get(i), OPEN_INTENTS_SQL));
+                }
+            }
+            return accounts;
+        });
+    }
+
+    @Override
+    public CardBalances balancesOf(Collection<String> cardNums) {
+        final List<List<String>> byShard = byShard(cardNums);
+        return snapshot(cardNums, () -> {
+            final CardBalances balances = new CardBalances(cardNums.size());
+            for (int i = 0; i < shards.length; i++) {
+                if (!byShard.get(i).isEmpty()) {
+                    final CardBalances shardBalances = shards[i].balancesOf(byShard.get(i), OPEN_INTENTS_SQL);
+                    for (int k = 0; k < shardBalances.size(); k++) {
+                        balances.put(shardBalances.cardAt(k), shardBalances.balanceAt(k));
+                    }
+                }
+            }
+            return balances;
+        });
+    }
+
+    /**
+     * Reads the shards one after another. Open debit intents are added back to their senders and open credit
+     * intents taken from their receivers, so an unfinished transfer shows up on none of its cards, whichever
+     * steps the shards have seen. The transfer shows up once {@link #forget} deletes its debit intent, a read
+     * during that is torn and tried again. If deletions keep running for the cards, cross shard transfers
+     * are held back for the last attempt like in {@link #forEachAccount(Consumer)}.
+     */
+    private <T> T snapshot(Collection<String> cardNums, Supplier<T> read) {
+        final boolean[] stripes = new boolean[FORGET_STRIPES];
+        for (String cardNum : cardNums) {
+            stripes[stripe(cardNum)] = true;
+        }
+        final long[] finished = new long[FORGET_STRIPES];
+        for (int attempt = 1; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            for (int i = 0; i < FORGET_STRIPES; i++) {
+                if (stripes[i]) {
+                    finished[i] = forgetsFinished.get(i);
+                }
+            }
+            final T result = read.get();
+            boolean torn = false;
+            for (int i = 0; i < FORGET_STRIPES && !torn; i++) {
+                // started only ever catches up with finished, so none ran from the first check until now
+                torn = stripes[i] && forgetsStarted.get(i) != finished[i];
+            }
+            if (!torn) {
+                return result;
+            }
+        }
+        crossShard.writeLock().lock();
+        try {
+            return read.get();
+        } finally {
+            crossShard.writeLock().unlock();
+        }
+    }
+
+    private static int stripe(String cardNum) {
+        return Math.floorMod(cardNum.hashCode(), FORGET_STRIPES);
+    }
+
+    private List<List<String>> byShard(Collection<String> cardNums) {
+        final List<List<String>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (String cardNum : cardNums) {
+            byShard.get(shardOf(cardNum)).add(cardNum);
+        }
+        return byShard;
+    }
+
+    @Override
+    public boolean create(Account account) {
+        return shard(account.getCardNumber()).create(account);
+    }
+
+    @Override
+    public List<Account> createAll(Collection<Account> accounts) {
+        final List<List<Account>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (Account account : accounts) {
+            byShard.get(shardOf(account.getCardNumber())).add(account);
+        }
+        final Set<Account> created = new HashSet<>();
+        for (int i = 0; i < shards.length; i++) {
+            created.addAll(shards[i].createAll(byShard.get(i)));
+        }
+        final List<Account> ordered = new ArrayList<>(created.size());
+        for (Account account : accounts) {
+            if (created.remove(account)) {
+                ordered.add(account);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * The cards of an owner may live on every shard.
+     */
+    @Override
+    public void update(int accountId, int amount) {
+        for (AccountDaoImpl shard : shards) {
+            shard.update(accountId, amount);
+        }
+    }
+
+    @Override
+    public void delete(int accountId) {
+        for (AccountDaoImpl shard : shards) {
+            shard.delete(accountId);
+        }
+    }
+
+    @Override
+    public TransferStatus transfer(Account sender, Account receiver, int amount) {
+        final int senderShard = shardOf(sender.getCardNumber());
+        final int receiverShard = shardOf(receiver.getCardNumber());
+        if (senderShard == receiverShard) {
+            return shards[senderShard].transfer(sender, receiver, amount);
+        }
+        try {
+            transferHook.beforeStart(sender, receiver);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TransferStatus.FAILED;
+        }
+        crossShard.readLock().lock();
+        try {
+            return crossShardTransfer(sender, receiver, amount, shards[senderShard], shards[receiverShard]);
+        } finally {
+            crossShard.readLock().unlock();
+        }
+    }
+
+    private TransferStatus crossShardTransfer(Account sender, Account receiver, int amount,
+                                              AccountDaoImpl senderShard, AccountDaoImpl receiverShard) {
+        final String id = UUID.randomUUID().toString();
+        final String senderCard = sender.getCardNumber();
+        final String receiverCard = receiver.getCardNumber();
+        try {
+            if (receiverShard.get(receiverCard) == null) {
+                return TransferStatus.CARD_NOT_FOUND;
+            }
+            final TransferStatus prepared = prepareDebit(senderShard, id, senderCard, receiverCard, amount);
+            if (prepared != TransferStatus.OK) {
+                return prepared;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return TransferStatus.FAILED;
+        }
+
+        try {
+            transferHook.afterDebit(sender, receiver);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            abortDebit(senderShard, id);
+            return TransferStatus.FAILED;
+        }
+
+        boolean credited;
+        try {
+            credited = applyCredit(receiverShard, id, senderCard, receiverCard, amount);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            // the credit transaction is over either way, see whether it made it
+            return resolve(senderShard, receiverShard, id, senderCard, receiverCard)
+                    ? TransferStatus.OK : TransferStatus.FAILED;
+        }
+        if (!credited) {
+            abortDebit(senderShard, id);
+            return TransferStatus.CARD_NOT_FOUND;
+        }
+        forget(senderShard, receiverShard, id, senderCard, receiverCard);
+        return TransferStatus.OK;
+    }
+
+    /**
+     * Debits the sender and records the debit intent in one transaction.
+     */
+    TransferStatus prepareDebit(AccountDaoImpl shard, String id, String senderCard, String receiverCard, int amount)
+            throws SQLException {
+        try (Connection connection = shard.connect()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!shard.debit(connection, senderCard, amount)) {
+                    connection.rollback();
+                    return shard.get(senderCard) == null ? TransferStatus.CARD_NOT_FOUND : TransferStatus.INSUFFICIENT_FUNDS;
+                }
+                insertIntent(connection, id, DEBIT, senderCard, receiverCard, amount);
+                addHistory(connection, senderCard, HistoryEntry.Kind.TRANSFER, receiverCard, -amount);
+                connection.commit();
+                return TransferStatus.OK;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Credits the receiver and records the credit intent in one transaction, does nothing if the intent exists.
+     *
+     * @return false if the receiver doesn't exist
+     */
+    boolean applyCredit(AccountDaoImpl shard, String id, String senderCard, String receiverCard, int amount)
+            throws SQLException {
+        try (Connection connection = shard.connect()) {
+            connection.setAutoCommit(false);
+            try {
+                if (findIntent(connection, id, CREDIT)) {
+                    connection.rollback();
+                    return true;
+                }
+                insertIntent(connection, id, CREDIT, senderCard, receiverCard, amount);
+                if (!shard.credit(connection, receiverCard, amount)) {
+                    connection.rollback();
+                    return false;
+                }
+                addHistory(connection, receiverCard, HistoryEntry.Kind.TRANSFER, senderCard, amount);
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Refunds the sender if the debit intent is still there and deletes it, in one transaction.
+     *
+     * @return false if the refund failed and is left to {@link #recover()}
+     */
+    private boolean abortDebit(AccountDaoImpl shard, String id) {
+        try (Connection connection = shard.connect()) {
+            connection.setAutoCommit(false);
+            try {
+                final PreparedStatement findStatement = connection.prepareStatement(
+                        "SELECT sender, receiver, amount FROM " + INTENT_TABLE + " WHERE id = ? AND role = ? FOR UPDATE");
+                findStatement.setString(1, id);
+                findStatement.setString(2, DEBIT);
+                ResultSet rs = findStatement.executeQuery();
+                if (rs.next()) {
+                    shard.credit(connection, rs.getString(1), rs.getInt(3));
+                    addHistory(connection, rs.getString(1), HistoryEntry.Kind.REFUND, rs.getString(2), rs.getInt(3));
+                    deleteIntent(connection, id, DEBIT);
+                }
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Completes the transfer if the credit was done, refunds the sender otherwise.
+     *
+     * @return true if the transfer completed
+     */
+    private boolean resolve(AccountDaoImpl senderShard, AccountDaoImpl receiverShard, String id,
+                            String senderCard, String receiverCard) {
+        final boolean credited;
+        try (Connection connection = receiverShard.connect()) {
+            credited = findIntent(connection, id, CREDIT);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            // in doubt, recover() decides on the next start
+            return false;
+        }
+        if (credited) {
+            forget(senderShard, receiverShard, id, senderCard, receiverCard);
+        } else {
+            abortDebit(senderShard, id);
+        }
+        return credited;
+    }
+
+    // the debit intent goes first, a credit intent without it is known to be finished
+    private void forget(AccountDaoImpl senderShard, AccountDaoImpl receiverShard, String id,
+                        String senderCard, String receiverCard) {
+        startForget(senderCard, receiverCard);
+        try {
+            try (Connection connection = senderShard.connect()) {
+                deleteIntent(connection, id, DEBIT);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            try (Connection connection = receiverShard.connect()) {
+                deleteIntent(connection, id, CREDIT);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            finishForget(senderCard, receiverCard);
+        }
+    }
+
+    private void startForget(String senderCard, String receiverCard) {
+        forgetsStarted.incrementAndGet(stripe(senderCard));
+        forgetsStarted.incrementAndGet(stripe(receiverCard));
+    }
+
+    private void finishForget(String senderCard, String receiverCard) {
+        forgetsFinished.incrementAndGet(stripe(senderCard));
+        forgetsFinished.incrementAndGet(stripe(receiverCard));
+    }
+
+    /**
+     * Finishes or refunds the cross shard transfers interrupted by a crash, called on start.
+     * Must not run while transfers are running.
+     */
+    public void recover() {
+        crossShard.writeLock().lock();
+        try {
+            for (AccountDaoImpl shard : shards) {
+                for (String[] intent : intents(shard, DEBIT)) {
+                    resolve(shard, shard(intent[2]), intent[0], intent[1], intent[2]);
+                }
+            }
+            for (AccountDaoImpl shard : shards) {
+                for (String[] intent : intents(shard, CREDIT)) {
+                    startForget(intent[1], intent[2]);
+                    try (Connection connection = shard.connect()) {
+                        deleteIntent(connection, intent[0], CREDIT);
+                    } finally {
+                        finishForget(intent[1], intent[2]);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            crossShard.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return id, sender, receiver and amount of every intent with the role
+     */
+    private static List<String[]> intents(AccountDaoImpl shard, String role) throws SQLException {
+        final List<String[]> intents = new ArrayList<>();
+        try (Connection connection = shard.connect();
+             PreparedStatement statement = connection.prepareStatement(FIND_INTENTS_SQL)) {
+            statement.setString(1, role);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                intents.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)});
+            }
+        }
+        return intents;
+    }
+
+    /**
+     * @return number of unfinished cross shard transfers
+     */
+    public int getPendingTransfers() {
+        int pending = 0;
+        try {
+            for (AccountDaoImpl shard : shards) {
+                pending += intents(shard, DEBIT).size();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return pending;
+    }
+
+    private static void insertIntent(Connection connection, String id, String role,
+                                     String senderCard, String receiverCard, int amount) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(INSERT_INTENT_SQL);
+        statement.setString(1, id);
+        statement.setString(2, role);
+        statement.setString(3, senderCard);
+        statement.setString(4, receiverCard);
+        statement.setInt(5, amount);
+        statement.executeUpdate();
+    }
+
+    private static void addHistory(Connection connection, String card, HistoryEntry.Kind kind,
+                                   String counterpart, int amount) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(TransactionHistory.INSERT_SQL);
+        TransactionHistory.add(statement, card, kind, counterpart, amount);
+        statement.executeBatch();
+    }
+
+    private static boolean findIntent(Connection connection, String id, String role) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(FIND_INTENT_SQL);
+        statement.setString(1, id);
+        statement.setString(2, role);
+        return statement.executeQuery().next();
+    }
+
+    private static void deleteIntent(Connection connection, String id, String role) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(DELETE_INTENT_SQL);
+        statement.setString(1, id);
+        statement.setString(2, role);
+        statement.executeUpdate();
+    }
+
+    /**
+     * Runs the batch as one transaction when all its cards live on one shard,
+     * otherwise transfer by transfer.
+     */
+    @Override
+    public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+        final Set<Integer> used = new HashSet<>();
+        for (TransferRequest request : requests) {
+            used.add(shardOf(request.getSenderCardNumber()));
+            used.add(shardOf(request.getReceiverCardNumber()));
+        }
+        if (used.size() <= 1) {
+            return requests.isEmpty() ? new ArrayList<>() : shard(requests.get(0).getSenderCardNumber()).transferBatch(requests);
+        }
+        final List<TransferStatus> statuses = new ArrayList<>(requests.size());
+        for (TransferRequest request : requests) {
+            Account sender = get(request.getSenderCardNumber());
+            Account receiver = get(request.getReceiverCardNumber());
+            statuses.add(sender == null || receiver == null
+                    ? TransferStatus.CARD_NOT_FOUND
+                    : transfer(sender, receiver, request.getAmount()));
+        }
+        return statuses;
+    }
+
+    @Override
+    public void forEachCardNumber(Consumer<String> consumer) {
+        for (AccountDaoImpl shard : shards) {
+            shard.forEachCardNumber(consumer);
+        }
+    }
+
+    /**
+     * The counters live on the first shard, a card number is issued once whichever shard stores it.
+     */
+    @Override
+    public long reserveCardCounters(long from, int count) {
+        return shards[0].reserveCardCounters(from, count);
+    }
+
+    /**
+     * Waits for the running cross shard transfers and holds new ones back until the scan is over,
+     * so no money is in flight between the shards.
+     */
+    @Override
+    public void forEachAccount(Consumer<Account> consumer) {
+        crossShard.writeLock().lock();
+        try {
+            for (AccountDaoImpl shard : shards) {
+                shard.forEachAccount(consumer);
+            }
+        } finally {
+            crossShard.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<HistoryEntry> history(String cardNum, HistoryEntry after, int limit) {
+        return shard(cardNum).history(cardNum, after, limit);
+    }
+
+    @Override
+    public boolean splitBalance(String cardNum, int slots) {
+        return shard(cardNum).splitBalance(cardNum, slots);
+    }
+
+    /**
+     * Warms up every shard, see {@link AccountDaoImpl#warmUp()}.
+     *
+     * @return number of cards
+     */
+    public long warmUp() {
+        long cards = 0;
+        for (AccountDaoImpl shard : shards) {
+            cards += shard.warmUp();
+        }
+        return cards;
+    }
+
+    public void close() {
+        for (AccountDaoImpl shard : shards) {
+            shard.close();
+        }
+    }
+
+    public void dropTable() {
+        executeOnShards("DROP TABLE IF EXISTS " + INTENT_TABLE);
+        for (AccountDaoImpl shard : shards) {
+            shard.dropTable();
+        }
+    }
+
+    /**
+     * Recreates the schema of every shard, after {@link #dropTable()}.
+     */
+    void createIfNotExists() {
+        for (AccountDaoImpl shard : shards) {
+            shard.createIfNotExists();
+        }
+        executeOnShards(CREATE_INTENT_TABLE_SQL);
+    }
+
+    private void executeOnShards(String sql) {
+        for (AccountDaoImpl shard : shards) {
+            try (Connection connection = shard.connect();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.smkjke.banking.system;
+
+import org.h2.tools.Server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Where and how the H2 databases are kept, one profile per deployment:
+ * <ul>
+ * <li>{@link Type#MEMORY}: in memory only, nothing survives the process, for tests and benchmarks,</li>
+ * <li>{@link Type#FILE}: a file per database in the directory, the MVStore cache and the commit delay can be tuned,</li>
+ * <li>{@link Type#SERVER}: the databases of a local H2 TCP server, so several processes can open them.
+ * The server can be started in this process, transfers with {@link TransferStrategy#STORED_PROCEDURE} need
+ * this one since the server runs them with its own classes.</li>
+ * </ul>
+ * A profile is read from properties, see {@link #fromProperties(Properties)}.
+ */
+public class StorageProfile {
+
+    public enum Type {
+        MEMORY, FILE, SERVER
+    }
+
+    public static final String DEFAULT_DIRECTORY = "/tmp/task_card/";
+    public static final int DEFAULT_PORT = 9092;
+
+    private final Type type;
+    private String directory = DEFAULT_DIRECTORY;
+    // H2 defaults when negative
+    private int cacheSizeKb = -1;
+    private int writeDelayMs = -1;
+    private String host = "localhost";
+    private int port = DEFAULT_PORT;
+    private boolean startServer;
+    private int poolSize = ConnectionPool.DEFAULT_MAX_SIZE;
+    private boolean warmUp;
+    // guarded by this
+    private Server server;
+
+    public StorageProfile(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * The profile used when nothing is configured, files in {@link #DEFAULT_DIRECTORY} with H2 defaults.
+     */
+    public static StorageProfile file() {
+        return new StorageProfile(Type.FILE);
+    }
+
+    public static StorageProfile memory() {
+        return new StorageProfile(Type.MEMORY);
+    }
+
+    /**
+     * Reads the profile from the keys
+     * <pre>
+     * profile       memory, file or server, file by default
+     * directory     of the database files, for the server relative to its base directory unless absolute
+     * cacheSize     MVStore page cache in KB
+     * writeDelay    ms a commit may stay in memory before it is written, 0 writes on every commit
+     * host, port    of the server
+     * startServer   true to start the server in this process
+     * poolSize      connections per database
+     * warmUp        true to load the cards and open the connections at startup
+     * </pre>
+     */
+    public static StorageProfile fromProperties(Properties properties) {
+        final StorageProfile profile = new StorageProfile(
+                Type.valueOf(properties.getProperty("profile", Type.FILE.name()).trim().toUpperCase()));
+        profile.setDirectory(properties.getProperty("directory", DEFAULT_DIRECTORY));
+        profile.setCacheSizeKb(Integer.parseInt(properties.getProperty("cacheSize", "-1").trim()));
+        profile.setWriteDelayMs(Integer.parseInt(properties.getProperty("writeDelay", "-1").trim()));
+        profile.setHost(properties.getProperty("host", "localhost"));
+        profile.setPort(Integer.parseInt(properties.getProperty("port", String.valueOf(DEFAULT_PORT)).trim()));
+        profile.setStartServer(Boolean.parseBoolean(properties.getProperty("startServer", "false").trim()));
+        profile.setPoolSize(Integer.parseInt(properties.getProperty("poolSize",
+                String.valueOf(ConnectionPool.DEFAULT_MAX_SIZE)).trim()));
+        profile.setWarmUp(Boolean.parseBoolean(properties.getProperty("warmUp", "false").trim()));
+        return profile;
+    }
+
+    /**
+     * Reads a properties file, see {@link #fromProperties(Properties)}.
+     */
+    public static Properties load(Path file) {
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+
+    /**
+     * @param name of the database, e.g. the file name
+     */
+    public String url(String name) {
+        switch (type) {
+            case MEMORY:
+                return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+            case SERVER:
+                return "jdbc:h2:tcp://" + host + ":" + port + "/" + directory + name + settings();
+            default:
+                return "jdbc:h2:" + directory + name + settings();
+        }
+    }
+
+    // applied by the connection that opens the database
+    private String settings() {
+        final StringBuilder settings = new StringBuilder();
+        if (cacheSizeKb >= 0) {
+            settings.append(";CACHE_SIZE=").append(cacheSizeKb);
+        }
+        if (writeDelayMs >= 0) {
+            settings.append(";WRITE_DELAY=").append(writeDelayMs);
+        }
+        return settings.toString();
+    }
+
+    /**
+     * Opens a pool for the database, starting the server first if this profile runs it.
+     */
+    public ConnectionPool open(String name) {
+        if (type == Type.SERVER && startServer) {
+            startServer();
+        }
+        return new ConnectionPool(url(name), poolSize, ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS,
+                ConnectionPool.DEFAULT_LEAK_THRESHOLD_MS, ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    private synchronized void startServer() {
+        if (server != null) {
+            return;
+        }
+        try {
+            // local connections only, databases are created on first use
+            server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-tcpDaemon", "-ifNotExists").start();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops the server started by {@link #open(String)}, if any.
+     */
+    public synchronized void stopServer() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory.endsWith("/") ? directory : directory + "/";
+    }
+
+    public void setCacheSizeKb(int cacheSizeKb) {
+        this.cacheSizeKb = cacheSizeKb;
+    }
+
+    public void setWriteDelayMs(int writeDelayMs) {
+        this.writeDelayMs = writeDelayMs;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setStartServer(boolean startServer) {
+        this.startServer = startServer;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    @Override
+    public String toString() {
+        return type.name().toLowerCase() + " " + url("<name>") + ", pool " + poolSize + (warmUp ? ", warm up" : "");
+    }
+}
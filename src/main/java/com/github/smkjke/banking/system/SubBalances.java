@@ -0,0 +1,120 @@
+package com.github.smkjke.banking.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SQL of the sub-balance table of hot cards. A hot card's balance is the balance of its card row plus
+ * the balances of its slots. A credit goes to a random slot and only locks that slot, so credits to a busy
+ * merchant or payroll card don't queue on its card row. A debit takes the card row balance, when that is
+ * not enough the slots are swept into the card row first.
+ * <p>
+ * Locks are always taken card rows first, then slots, both in card number order.
+ */
+public final class SubBalances {
+
+    static final String TABLE = "card_slot";
+    static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            "number VARCHAR(19) NOT NULL," +
+            "slot INTEGER NOT NULL," +
+            "balance INTEGER NOT NULL DEFAULT 0," +
+            "PRIMARY KEY (number, slot))";
+    // added to the card row balance, a single statement reads the card and its slots from one snapshot
+    static final String TOTAL_SQL = "(SELECT COALESCE(SUM(s.balance), 0) FROM " + TABLE + " s WHERE s.number = card.number)";
+
+    private static final String CREDIT_SQL = "UPDATE " + TABLE + " SET balance = balance + ? WHERE number = ? AND slot = ?";
+    private static final String LOCK_SQL = "SELECT balance FROM " + TABLE + " WHERE number = ? FOR UPDATE";
+    private static final String CLEAR_SQL = "UPDATE " + TABLE + " SET balance = 0 WHERE number = ? AND balance <> 0";
+    private static final String INSERT_SQL = "INSERT INTO " + TABLE + " (number, slot) VALUES (?, ?)";
+    private static final String DELETE_SQL = "DELETE FROM " + TABLE + " WHERE number = ?";
+    private static final String COUNT_SQL = "SELECT number, COUNT(*) FROM " + TABLE + " GROUP BY number";
+
+    private SubBalances() {
+    }
+
+    /**
+     * Credits a random slot of the card.
+     *
+     * @return false if the slot doesn't exist, the card is not hot any more
+     */
+    static boolean credit(Connection connection, String card, int slots, int amount) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(CREDIT_SQL)) {
+            statement.setInt(1, amount);
+            statement.setString(2, card);
+            statement.setInt(3, ThreadLocalRandom.current().nextInt(slots));
+            return statement.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Moves the balances of all slots of the card into its card row.
+     *
+     * @return the amount moved
+     */
+    static int sweep(Connection connection, String card) throws SQLException {
+        int total = 0;
+        try (PreparedStatement lockStatement = connection.prepareStatement(LOCK_SQL)) {
+            lockStatement.setString(1, card);
+            ResultSet rs = lockStatement.executeQuery();
+            while (rs.next()) {
+                total += rs.getInt(1);
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        try (PreparedStatement clearStatement = connection.prepareStatement(CLEAR_SQL);
+             PreparedStatement creditStatement = connection.prepareStatement(AccountDaoImpl.CREDIT_SQL)) {
+            clearStatement.setString(1, card);
+            clearStatement.executeUpdate();
+            creditStatement.setInt(1, total);
+            creditStatement.setString(2, card);
+            creditStatement.executeUpdate();
+        }
+        return total;
+    }
+
+    /**
+     * Sweeps the card and replaces its slots, no slots are left for less than 2.
+     */
+    static void resize(Connection connection, String card, int slots) throws SQLException {
+        sweep(connection, card);
+        try (PreparedStatement deleteStatement = connection.prepareStatement(DELETE_SQL);
+             PreparedStatement insertStatement = connection.prepareStatement(INSERT_SQL)) {
+            deleteStatement.setString(1, card);
+            deleteStatement.executeUpdate();
+            for (int slot = 0; slots > 1 && slot < slots; slot++) {
+                insertStatement.setString(1, card);
+                insertStatement.setInt(2, slot);
+                insertStatement.addBatch();
+            }
+            insertStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Drops the slots together with the card, their money goes away with the card row's.
+     */
+    static void delete(Connection connection, String card) throws SQLException {
+        try (PreparedStatement deleteStatement = connection.prepareStatement(DELETE_SQL)) {
+            deleteStatement.setString(1, card);
+            deleteStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads the number of slots of every hot card.
+     */
+    static void load(Connection connection, Map<String, Integer> slots) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(COUNT_SQL)) {
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                slots.put(rs.getString(1), rs.getInt(2));
+            }
+        }
+    }
+}
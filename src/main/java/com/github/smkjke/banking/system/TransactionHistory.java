@@ -0,0 +1,87 @@
+package com.github.smkjke.banking.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL of the append only history table. Entries are written by the transaction that changes the balance.
+ * <p>
+ * Statements are read newest first a page at a time. The next page starts right after the last entry
+ * of the previous one (keyset pagination), so a page costs the same however deep it is, unlike OFFSET.
+ * H2 only reads the index backwards and stops after the page when the index is declared descending
+ * and the ORDER BY lists all its columns, the card column included.
+ */
+public final class TransactionHistory {
+
+    static final String TABLE = "history";
+    static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+            "number VARCHAR(19) NOT NULL," +
+            "kind VARCHAR(8) NOT NULL," +
+            "counterpart VARCHAR(19)," +
+            "amount INTEGER NOT NULL," +
+            "created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)";
+    static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS history_card_idx ON " + TABLE
+            + "(number DESC, created DESC, id DESC)";
+    static final String INSERT_SQL = "INSERT INTO " + TABLE + " (number, kind, counterpart, amount) VALUES (?, ?, ?, ?)";
+    // one entry for every card of the owner
+    static final String INCOME_SQL = "INSERT INTO " + TABLE + " (number, kind, amount) SELECT number, '"
+            + HistoryEntry.Kind.INCOME + "', ? FROM card WHERE ownerId = ?";
+
+    private static final String SELECT = "SELECT id, number, kind, counterpart, amount, created FROM " + TABLE;
+    private static final String ORDER = " ORDER BY number DESC, created DESC, id DESC LIMIT ?";
+    private static final String FIRST_PAGE_SQL = SELECT + " WHERE number = ?" + ORDER;
+    private static final String NEXT_PAGE_SQL = SELECT
+            + " WHERE number = ? AND created <= ? AND (created < ? OR id < ?)" + ORDER;
+
+    private TransactionHistory() {
+    }
+
+    static void add(PreparedStatement insertStatement, String card, HistoryEntry.Kind kind,
+                    String counterpart, int amount) throws SQLException {
+        insertStatement.setString(1, card);
+        insertStatement.setString(2, kind.name());
+        insertStatement.setString(3, counterpart);
+        insertStatement.setInt(4, amount);
+        insertStatement.addBatch();
+    }
+
+    /**
+     * Adds the entries of both cards to the batch of the insert statement.
+     */
+    static void addTransfer(PreparedStatement insertStatement, String senderCard, String receiverCard, int amount)
+            throws SQLException {
+        add(insertStatement, senderCard, HistoryEntry.Kind.TRANSFER, receiverCard, -amount);
+        add(insertStatement, receiverCard, HistoryEntry.Kind.TRANSFER, senderCard, amount);
+    }
+
+    /**
+     * @param after last entry of the previous page, null for the first page
+     */
+    static List<HistoryEntry> page(Connection connection, String card, HistoryEntry after, int limit)
+            throws SQLException {
+        final List<HistoryEntry> entries = new ArrayList<>(Math.min(limit, 1000));
+        try (PreparedStatement statement = connection.prepareStatement(after == null ? FIRST_PAGE_SQL : NEXT_PAGE_SQL)) {
+            int index = 1;
+            statement.setString(index++, card);
+            if (after != null) {
+                final Timestamp created = Timestamp.from(after.getTime());
+                statement.setTimestamp(index++, created);
+                statement.setTimestamp(index++, created);
+                statement.setLong(index++, after.getId());
+            }
+            statement.setInt(index, limit);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                entries.add(new HistoryEntry(rs.getLong(1), rs.getString(2), HistoryEntry.Kind.valueOf(rs.getString(3)),
+                        rs.getString(4), rs.getInt(5), rs.getTimestamp(6).toInstant()));
+            }
+        }
+        return entries;
+    }
+}
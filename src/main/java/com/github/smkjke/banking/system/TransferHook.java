@@ -0,0 +1,30 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * Extension point called at the interesting moments of a transfer.
+ * Production code runs with {@link #NONE}, tests install hooks to delay or break transfers
+ * and reproduce interleavings.
+ */
+public interface TransferHook {
+
+    TransferHook NONE = new TransferHook() {
+    };
+
+    /**
+     * Called before the transfer opens its transaction.
+     */
+    default void beforeStart(Account sender, Account receiver) throws InterruptedException {
+    }
+
+    /**
+     * Called once both cards are locked.
+     */
+    default void afterLock(Account sender, Account receiver) throws InterruptedException {
+    }
+
+    /**
+     * Called after the sender has been debited, throwing an exception here rolls the transfer back.
+     */
+    default void afterDebit(Account sender, Account receiver) {
+    }
+}
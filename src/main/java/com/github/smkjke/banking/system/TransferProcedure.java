@@ -0,0 +1,82 @@
+package com.github.smkjke.banking.system;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Transfer running inside H2 as the BANK_TRANSFER function, so the whole transfer is one statement
+ * from the client's point of view: {@code CALL BANK_TRANSFER(sender, receiver, amount)}.
+ * H2 rolls the statement back if it fails half way.
+ */
+public final class TransferProcedure {
+
+    static final String ALIAS = "BANK_TRANSFER";
+    // FORCE, a server without this class on its classpath still creates the alias, only calling it fails
+    static final String CREATE_ALIAS_SQL = "CREATE FORCE ALIAS IF NOT EXISTS " + ALIAS + " FOR \""
+            + TransferProcedure.class.getName() + ".transfer\"";
+    static final String CALL_SQL = "CALL " + ALIAS + "(?, ?, ?)";
+
+    private static final String LOCK_BALANCE_SQL = "SELECT balance FROM card WHERE number = ? FOR UPDATE";
+    // both rows with one statement, the sender gets the first amount
+    private static final String MOVE_SQL = "UPDATE card SET balance = balance + CASE WHEN number = ? THEN ? ELSE ? END, "
+            + "version = version + 1 WHERE number IN (?, ?)";
+
+    private static final TransferStatus[] STATUSES = TransferStatus.values();
+
+    private TransferProcedure() {
+    }
+
+    /**
+     * Called by H2 with the connection of the calling session.
+     *
+     * @return {@link TransferStatus} ordinal
+     */
+    public static int transfer(Connection connection, String senderCard, String receiverCard, int amount)
+            throws SQLException {
+        final boolean senderFirst = senderCard.compareTo(receiverCard) <= 0;
+        final int senderBalance;
+        try (PreparedStatement lock = connection.prepareStatement(LOCK_BALANCE_SQL)) {
+            // natural order, like every other transfer path
+            final Integer first = lockBalance(lock, senderFirst ? senderCard : receiverCard);
+            final Integer second = lockBalance(lock, senderFirst ? receiverCard : senderCard);
+            if (first == null || second == null) {
+                return TransferStatus.CARD_NOT_FOUND.ordinal();
+            }
+            senderBalance = senderFirst ? first : second;
+        }
+        if (senderBalance < amount) {
+            return TransferStatus.INSUFFICIENT_FUNDS.ordinal();
+        }
+        if (senderCard.equals(receiverCard)) {
+            return TransferStatus.OK.ordinal();
+        }
+        try (PreparedStatement move = connection.prepareStatement(MOVE_SQL)) {
+            move.setString(1, senderCard);
+            move.setInt(2, -amount);
+            move.setInt(3, amount);
+            move.setString(4, senderCard);
+            move.setString(5, receiverCard);
+            if (move.executeUpdate() != 2) {
+                throw new SQLException("Transfer from " + senderCard + " to " + receiverCard + " changed a wrong number of rows");
+            }
+        }
+        try (PreparedStatement history = connection.prepareStatement(TransactionHistory.INSERT_SQL)) {
+            TransactionHistory.addTransfer(history, senderCard, receiverCard, amount);
+            history.executeBatch();
+        }
+        return TransferStatus.OK.ordinal();
+    }
+
+    private static Integer lockBalance(PreparedStatement lock, String card) throws SQLException {
+        lock.setString(1, card);
+        try (ResultSet rs = lock.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : null;
+        }
+    }
+
+    static TransferStatus status(int code) {
+        return code >= 0 && code < STATUSES.length ? STATUSES[code] : TransferStatus.FAILED;
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * One item of a transfer batch.
+ */
+public class TransferRequest {
+
+    private final String senderCardNumber;
+    private final String receiverCardNumber;
+    private final int amount;
+
+    public TransferRequest(String senderCardNumber, String receiverCardNumber, int amount) {
+        this.senderCardNumber = senderCardNumber;
+        this.receiverCardNumber = receiverCardNumber;
+        this.amount = amount;
+    }
+
+    public String getSenderCardNumber() {
+        return senderCardNumber;
+    }
+
+    public String getReceiverCardNumber() {
+        return receiverCardNumber;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * Outcome of a single transfer.
+ */
+public enum TransferStatus {
+    OK,
+    INSUFFICIENT_FUNDS,
+    CARD_NOT_FOUND,
+    FAILED,
+    // not even started, too many transfers were running or waiting, see AdmissionControl
+    REJECTED
+}
@@ -0,0 +1,21 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * How {@link AccountDaoImpl} keeps concurrent transfers from losing money.
+ */
+public enum TransferStrategy {
+    /**
+     * Locks both cards with SELECT ... FOR UPDATE before changing them, concurrent transfers on a card wait.
+     */
+    PESSIMISTIC,
+    /**
+     * Reads both cards without locking and changes them only if their version didn't change meanwhile,
+     * retrying a few times on conflict. Cheaper when transfers rarely share a card.
+     */
+    OPTIMISTIC,
+    /**
+     * Runs the whole transfer inside the database with a single call, see {@link TransferProcedure}.
+     * Only {@link TransferHook#beforeStart} is called, the rest happens out of reach of the hook.
+     */
+    STORED_PROCEDURE
+}
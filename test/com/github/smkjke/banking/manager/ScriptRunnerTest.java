@@ -0,0 +1,45 @@
+package com.github.smkjke.banking.manager;
+
+
+import com.github.smkjke.banking.system.BankSystem;
+import com.github.smkjke.banking.system.InMemoryAccountDao;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+public class ScriptRunnerTest {
+
+    private static final String FIRST = "4000001000000000";
+    private static final String SECOND = "4000001000000018";
+
+    @Test
+    public void commandsOnACardKeepScriptOrder() {
+        StringBuilder script = new StringBuilder()
+                .append("# two cards\n")
+                .append("create ").append(FIRST).append(" 1111\n")
+                .append("create ").append(SECOND).append(" 2222\n")
+                .append("income ").append(FIRST).append(" 100\n");
+        for (int i = 0; i < 100; i++) {
+            script.append("transfer ").append(FIRST).append(' ').append(SECOND).append(" 1\n");
+        }
+        script.append("transfer ").append(FIRST).append(' ').append(SECOND).append(" 1\n")
+                .append("balance ").append(SECOND).append('\n')
+                .append("reconcile\n")
+                .append("withdraw ").append(FIRST).append(" 1\n");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ScriptRunner(new BankSystem(new InMemoryAccountDao()), 4)
+                .run(new BufferedReader(new StringReader(script.toString())), new PrintStream(output, true));
+
+        String out = output.toString();
+        Assertions.assertTrue(out.contains("105: transfer INSUFFICIENT_FUNDS"), out);
+        Assertions.assertTrue(out.contains("106: " + SECOND + " 100"), out);
+        Assertions.assertTrue(out.contains("107: Accounts: 2, total balance: 100, negative balances: 0"), out);
+        Assertions.assertTrue(out.contains("108: unknown command withdraw"), out);
+        Assertions.assertTrue(out.contains("106 commands in"), out);
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AdmissionControlTest {
+
+    private static final String HOT = "4000001000000000";
+    private static final String OTHER = "4000001000000018";
+    private static final String THIRD = "4000001000000026";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    public void stop() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    /**
+     * Starts a transfer that runs until the test releases it.
+     */
+    private CompletableFuture<TransferStatus> blockingTransfer(AdmissionControl admission, String... cards) throws InterruptedException {
+        CompletableFuture<TransferStatus> result = CompletableFuture.supplyAsync(() -> admission.admit(cards, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return TransferStatus.OK;
+        }), executor);
+        started.await();
+        return result;
+    }
+
+    @Test
+    public void hotCardIsRejectedOthersRun() throws Exception {
+        AdmissionControl admission = new AdmissionControl(4, 4, 1, 1000, Metrics.NOOP);
+        CompletableFuture<TransferStatus> running = blockingTransfer(admission, HOT, OTHER);
+
+        Assertions.assertEquals(1, admission.getQueueDepth(HOT));
+        Assertions.assertEquals(TransferStatus.REJECTED, admission.admit(new String[]{THIRD, HOT}, () -> TransferStatus.OK));
+        Assertions.assertEquals(0, admission.getQueueDepth(THIRD));
+        Assertions.assertEquals(TransferStatus.OK, admission.admit(new String[]{THIRD}, () -> TransferStatus.OK));
+
+        release.countDown();
+        Assertions.assertEquals(TransferStatus.OK, running.join());
+        Assertions.assertTrue(admission.getQueueDepths().isEmpty());
+        Assertions.assertEquals(1, admission.getRejected());
+    }
+
+    @Test
+    public void fullQueueRejectsAtOnce() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 0, 10, 60_000, Metrics.NOOP);
+        CompletableFuture<TransferStatus> running = blockingTransfer(admission, HOT);
+
+        long start = System.nanoTime();
+        Assertions.assertEquals(TransferStatus.REJECTED, admission.admit(new String[]{OTHER}, () -> TransferStatus.OK));
+        Assertions.assertTrue(System.nanoTime() - start < 1_000_000_000L);
+
+        release.countDown();
+        Assertions.assertEquals(TransferStatus.OK, running.join());
+    }
+
+    @Test
+    public void waitingIsBounded() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        AdmissionControl admission = new AdmissionControl(1, 1, 10, 50, metrics);
+        CompletableFuture<TransferStatus> running = blockingTransfer(admission, HOT);
+
+        Assertions.assertEquals(TransferStatus.REJECTED, admission.admit(new String[]{OTHER}, () -> TransferStatus.OK));
+        Assertions.assertEquals(1, metrics.getCount("admission.rejected.timeout"));
+        Assertions.assertEquals(0, admission.getQueued());
+
+        release.countDown();
+        Assertions.assertEquals(TransferStatus.OK, running.join());
+        Assertions.assertEquals(TransferStatus.OK, admission.admit(new String[]{OTHER}, () -> TransferStatus.OK));
+    }
+}
@@ -6,9 +6,21 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
-
-
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -18,22 +30,34 @@ public class BankSystemTest {
     private static final int TRANSFERS_PER_THREAD = 10;
 
     private BankSystem bankSystem;
+    private AccountDao accountDao;
     private AccountDaoImpl dao;
+    private final DelayingHook hook = new DelayingHook();
     private Account sender = new Account(0);
     private Account receiverFirst = new Account(1);
     private Account receiverSecond = new Account(2);
 
     @BeforeAll
     public void createTask() {
-        dao = new AccountDaoImpl("testcard");
-        bankSystem = new BankSystem(dao);
+        accountDao = createDao(hook);
+        bankSystem = new BankSystem(accountDao);
 
-        dao.dropTable();
-        dao.createIfNotExists();
+        clearStorage();
     }
 
     @AfterEach
     public void clearDBAfterEachTest() {
+        hook.failAfterDebit = false;
+        clearStorage();
+    }
+
+    AccountDao createDao(TransferHook hook) {
+        dao = new AccountDaoImpl("testcard");
+        dao.setTransferHook(hook);
+        return dao;
+    }
+
+    void clearStorage() {
         dao.dropTable();
         dao.createIfNotExists();
     }
@@ -52,7 +76,7 @@ public class BankSystemTest {
 
         Runnable task = () -> {
             for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
-                bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), 1, 0, false);
+                bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), 1);
             }
             latch.countDown();
         };
@@ -71,6 +95,104 @@ public class BankSystemTest {
         Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
     }
 
+    @Test
+    public void splitBalanceKeepsTheTotal() throws InterruptedException {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addCardToDB(receiverSecond);
+
+        final int totalCount = THREADS * TRANSFERS_PER_THREAD;
+        bankSystem.addIncome(sender, totalCount);
+        bankSystem.addIncome(receiverFirst, 5);
+        Assertions.assertTrue(bankSystem.splitBalance(receiverFirst.getCardNumber(), 4));
+        Assertions.assertFalse(bankSystem.splitBalance("4000009999999999", 4));
+        Assertions.assertEquals(5, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        Runnable task = () -> {
+            for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), 1);
+                bankSystem.addIncome(receiverFirst, 1);
+            }
+            latch.countDown();
+        };
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(task).start();
+        }
+        latch.await();
+
+        final int received = 5 + 2 * totalCount;
+        Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
+        Assertions.assertEquals(received, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+
+        // more than the card row alone holds
+        Assertions.assertEquals(TransferStatus.OK,
+                bankSystem.doTransfer(receiverFirst.getCardNumber(), receiverSecond.getCardNumber(), received - 1));
+        Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS,
+                bankSystem.doTransfer(receiverFirst.getCardNumber(), receiverSecond.getCardNumber(), 2));
+        bankSystem.addIncome(receiverFirst, 10);
+        Assertions.assertEquals(Arrays.asList(TransferStatus.OK), bankSystem.transferBatch(Arrays.asList(
+                new TransferRequest(receiverFirst.getCardNumber(), sender.getCardNumber(), 11))));
+        Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+        Assertions.assertEquals(2 * totalCount + 15, bankSystem.reconcile().getTotal());
+
+        bankSystem.addIncome(receiverFirst, 3);
+        Assertions.assertTrue(bankSystem.splitBalance(receiverFirst.getCardNumber(), 1));
+        Assertions.assertEquals(3, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+    }
+
+    @Test
+    public void balancesAddUpWhileTransfersRun() throws InterruptedException {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addCardToDB(receiverSecond);
+        final int totalCount = THREADS * TRANSFERS_PER_THREAD;
+        bankSystem.addIncome(sender, totalCount);
+        Assertions.assertTrue(bankSystem.splitBalance(receiverSecond.getCardNumber(), 4));
+
+        // missing cards spread over the card range, so the real ones are read by different chunks
+        final List<String> cards = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            cards.add(String.format("400000%010d", i * 5_000_000L));
+        }
+        cards.add(sender.getCardNumber());
+        cards.add(receiverFirst.getCardNumber());
+        cards.add(receiverSecond.getCardNumber());
+        cards.add("not a card");
+        cards.add("40000000000000000000000");
+
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        Runnable task = () -> {
+            for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                bankSystem.doTransfer(sender.getCardNumber(), i % 2 == 0
+                        ? receiverFirst.getCardNumber() : receiverSecond.getCardNumber(), 1);
+            }
+            latch.countDown();
+        };
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(task).start();
+        }
+        while (latch.getCount() > 0) {
+            final CardBalances balances = bankSystem.getBalances(cards);
+            Assertions.assertEquals(3, balances.size());
+            Assertions.assertEquals(totalCount, balances.getTotal());
+        }
+        latch.await();
+
+        final CardBalances balances = bankSystem.getBalances(cards);
+        Assertions.assertEquals(0, balances.get(sender.getCardNumber(), -1));
+        Assertions.assertEquals(totalCount / 2, balances.get(receiverFirst.getCardNumber(), -1));
+        Assertions.assertEquals(totalCount / 2, balances.get(receiverSecond.getCardNumber(), -1));
+        Assertions.assertEquals(-1, balances.get("4000009999999999", -1));
+        Assertions.assertFalse(balances.contains("not a card"));
+
+        final Map<String, Account> accounts = bankSystem.getAccounts(cards);
+        Assertions.assertEquals(3, accounts.size());
+        Assertions.assertEquals(receiverFirst.getId(), accounts.get(receiverFirst.getCardNumber()).getId());
+        Assertions.assertEquals(totalCount / 2, accounts.get(receiverSecond.getCardNumber()).getBalance());
+        Assertions.assertTrue(bankSystem.getAccounts(new ArrayList<>()).isEmpty());
+    }
+
     @Test
     public void readWriteAtomicityCheck() throws InterruptedException {
 
@@ -119,7 +241,8 @@ public class BankSystemTest {
         final int balance = 10;
         bankSystem.addIncome(sender, balance);
 
-        bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), balance, 0, true);
+        hook.failAfterDebit = true;
+        bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), balance);
 
         Assertions.assertEquals(balance, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
         Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
@@ -181,7 +304,8 @@ public class BankSystemTest {
         final CountDownLatch latch = new CountDownLatch(1);
         // start before with delay for testing if balances are cached
         new Thread(() -> {
-            bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), 10, 1000, false);
+            hook.delayBeforeStart(1000);
+            bankSystem.doTransfer(sender.getCardNumber(), receiverFirst.getCardNumber(), 10);
             latch.countDown();
         }).start();
 
@@ -222,4 +346,302 @@ public class BankSystemTest {
         Assertions.assertEquals(balance, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
         Assertions.assertEquals(balance, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void batchTransferReportsEveryItem() {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addCardToDB(receiverSecond);
+
+        final int balance = 10;
+        bankSystem.addIncome(sender, balance);
+
+        List<TransferStatus> statuses = bankSystem.transferBatch(Arrays.asList(
+                new TransferRequest(sender.getCardNumber(), receiverFirst.getCardNumber(), 4),
+                new TransferRequest(sender.getCardNumber(), receiverSecond.getCardNumber(), 4),
+                new TransferRequest(sender.getCardNumber(), receiverFirst.getCardNumber(), 4),
+                new TransferRequest(receiverFirst.getCardNumber(), receiverSecond.getCardNumber(), 3),
+                new TransferRequest(sender.getCardNumber(), "4000000000000002", 1)));
+
+        Assertions.assertEquals(Arrays.asList(TransferStatus.OK, TransferStatus.OK, TransferStatus.INSUFFICIENT_FUNDS,
+                TransferStatus.OK, TransferStatus.CARD_NOT_FOUND), statuses);
+        Assertions.assertEquals(2, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
+        Assertions.assertEquals(1, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+        Assertions.assertEquals(7, bankSystem.getCurrentCardBalance(receiverSecond.getCardNumber()));
+    }
+
+    @Test
+    public void asyncTransfersKeepPerCardOrder() {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addCardToDB(receiverSecond);
+
+        final int chains = 5;
+        bankSystem.addIncome(sender, chains);
+
+        // receiverFirst has no money, each of its transfers only works after the one funding it
+        List<CompletableFuture<TransferStatus>> futures = new ArrayList<>();
+        for (int i = 0; i < chains; i++) {
+            futures.add(bankSystem.doTransferAsync(sender.getCardNumber(), receiverFirst.getCardNumber(), 1));
+            futures.add(bankSystem.doTransferAsync(receiverFirst.getCardNumber(), receiverSecond.getCardNumber(), 1));
+        }
+
+        for (CompletableFuture<TransferStatus> future : futures) {
+            Assertions.assertEquals(TransferStatus.OK, future.join());
+        }
+        Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
+        Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+        Assertions.assertEquals(chains, bankSystem.getCurrentCardBalance(receiverSecond.getCardNumber()));
+    }
+
+    @Test
+    public void clearingSettlesWindowsWithNetting() {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addCardToDB(receiverSecond);
+        bankSystem.addIncome(sender, 10);
+
+        // the window closes at the third transfer
+        bankSystem.enableClearing(3, 60_000);
+        try {
+            // funded by the next transfer of the same window
+            CompletableFuture<TransferStatus> forwarded = bankSystem.doTransferAsync(
+                    receiverFirst.getCardNumber(), receiverSecond.getCardNumber(), 5);
+            CompletableFuture<TransferStatus> funding = bankSystem.doTransferAsync(
+                    sender.getCardNumber(), receiverFirst.getCardNumber(), 10);
+            CompletableFuture<TransferStatus> overdraft = bankSystem.doTransferAsync(
+                    sender.getCardNumber(), receiverSecond.getCardNumber(), 1);
+
+            Assertions.assertEquals(TransferStatus.OK, forwarded.join());
+            Assertions.assertEquals(TransferStatus.OK, funding.join());
+            Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS, overdraft.join());
+        } finally {
+            bankSystem.disableClearing();
+        }
+        Assertions.assertEquals(0, bankSystem.getCurrentCardBalance(sender.getCardNumber()));
+        Assertions.assertEquals(5, bankSystem.getCurrentCardBalance(receiverFirst.getCardNumber()));
+        Assertions.assertEquals(5, bankSystem.getCurrentCardBalance(receiverSecond.getCardNumber()));
+    }
+
+    @Test
+    public void bulkProvisioningSkipsExistingCards() {
+        bankSystem.addCardToDB(sender);
+
+        Account duplicate = new Account(7, sender.getCardNumber(), "0000", 0);
+        Account repeated = new Account(8, receiverFirst.getCardNumber(), "0000", 0);
+        List<Account> created = bankSystem.createAll(Arrays.asList(duplicate, receiverFirst, receiverSecond, repeated));
+        Assertions.assertEquals(Arrays.asList(receiverFirst, receiverSecond), created);
+        Assertions.assertTrue(bankSystem.tryToLogInAccount(sender.getCardNumber(), sender.getPinCode()));
+        Assertions.assertFalse(bankSystem.tryToLogInAccount(sender.getCardNumber(), "0000".equals(sender.getPinCode()) ? "0001" : "0000"));
+
+        final int count = 5000;
+        List<Account> accounts = bankSystem.createAccounts(count);
+        Assertions.assertEquals(count, accounts.size());
+        Set<String> cards = new HashSet<>();
+        for (Account account : accounts) {
+            Assertions.assertTrue(cards.add(account.getCardNumber()));
+        }
+        for (int i = 0; i < count; i += 97) {
+            Account account = accounts.get(i);
+            Assertions.assertTrue(bankSystem.tryToLogInAccount(account.getCardNumber(), account.getPinCode()));
+        }
+    }
+
+    @Test
+    public void concurrentBulkProvisioningCreatesEveryCardOnce() throws Exception {
+        final List<Account> accounts = new ArrayList<>();
+        final List<Account> firstAccounts = new ArrayList<>();
+        final List<Account> secondAccounts = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            Account account = bankSystem.newAccount();
+            accounts.add(account);
+            // every third card in both, so each runs into chunks the other hasn't committed yet
+            if (i % 3 != 2) {
+                firstAccounts.add(account);
+            }
+            if (i % 3 != 1) {
+                secondAccounts.add(account);
+            }
+        }
+        CompletableFuture<List<Account>> first = CompletableFuture.supplyAsync(() -> bankSystem.createAll(firstAccounts));
+        List<Account> second = bankSystem.createAll(secondAccounts);
+
+        Set<String> created = new HashSet<>();
+        for (Account account : first.get()) {
+            Assertions.assertTrue(created.add(account.getCardNumber()));
+        }
+        for (Account account : second) {
+            Assertions.assertTrue(created.add(account.getCardNumber()));
+        }
+        Assertions.assertEquals(accounts.size(), created.size());
+    }
+
+    @Test
+    public void bankSystemsOnOneDatabaseIssueDifferentCards() {
+        BankSystem first = new BankSystem(accountDao);
+        BankSystem second = new BankSystem(accountDao);
+
+        Set<String> cards = new HashSet<>();
+        Account account = null;
+        // past the first block of each
+        for (int i = 0; i <= CardNumberAllocator.BLOCK_SIZE; i++) {
+            account = first.createAccount();
+            Assertions.assertTrue(cards.add(account.getCardNumber()));
+            account = second.createAccount();
+            Assertions.assertTrue(cards.add(account.getCardNumber()));
+        }
+        Assertions.assertTrue(first.tryToLogInAccount(account.getCardNumber(), account.getPinCode()));
+    }
+
+    @Test
+    public void createdAccountGetsAnotherCardWhenItsNumberIsTaken() {
+        BankSystem bankSystem = new BankSystem(accountDao);
+        // the block the bank system reserves first
+        long counter = accountDao.reserveCardCounters(0, 0);
+        Account taken = new Account(100,
+                Account.cardNumber(Account.MIN_ACCOUNT_NUMBER + new CardNumberAllocator().permute(counter)), "1234", 0);
+        Assertions.assertTrue(bankSystem.addCardToDB(taken));
+        Assertions.assertFalse(bankSystem.addCardToDB(new Account(101, taken.getCardNumber(), "4321", 0)));
+
+        Account account = bankSystem.createAccount();
+        Assertions.assertNotEquals(taken.getCardNumber(), account.getCardNumber());
+        Assertions.assertTrue(bankSystem.tryToLogInAccount(account.getCardNumber(), account.getPinCode()));
+        Assertions.assertTrue(bankSystem.tryToLogInAccount(taken.getCardNumber(), "1234"));
+    }
+
+    @Test
+    public void sessionStandsForTheLoggedInCard() {
+        bankSystem.addCardToDB(sender);
+        Assertions.assertNotEquals(sender.getPinCode(), bankSystem.getAccount(sender.getCardNumber()).getPinCode());
+
+        Assertions.assertNull(bankSystem.logIn(sender.getCardNumber(), "0000".equals(sender.getPinCode()) ? "0001" : "0000"));
+        String token = bankSystem.logIn(sender.getCardNumber(), sender.getPinCode());
+        Assertions.assertNotNull(token);
+        Assertions.assertEquals(sender.getCardNumber(), bankSystem.getSessionAccount(token).getCardNumber());
+        Assertions.assertEquals(sender.getId(), bankSystem.getSessionAccount(token).getId());
+
+        bankSystem.logOut(token);
+        Assertions.assertNull(bankSystem.getSessionAccount(token));
+
+        token = bankSystem.logIn(sender.getCardNumber(), sender.getPinCode());
+        bankSystem.closeAccount(sender.getId());
+        Assertions.assertNull(bankSystem.getSessionAccount(token));
+    }
+
+    @Test
+    public void statementPagesThroughHistory() {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addIncome(sender, 1000);
+        final int transfers = 25;
+        hook.delayBeforeStart(1);
+        for (int i = 1; i <= transfers; i++) {
+            Assertions.assertEquals(TransferStatus.OK, bankSystem.transfer(sender.getCardNumber(), receiverFirst.getCardNumber(), i));
+        }
+        hook.delayBeforeStart(0);
+
+        List<HistoryEntry> statement = new ArrayList<>();
+        List<HistoryEntry> page = bankSystem.getStatement(sender.getCardNumber(), null, BankSystem.STATEMENT_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            Assertions.assertTrue(page.size() <= BankSystem.STATEMENT_PAGE_SIZE);
+            statement.addAll(page);
+            page = bankSystem.getStatement(sender.getCardNumber(), page.get(page.size() - 1), BankSystem.STATEMENT_PAGE_SIZE);
+        }
+
+        Assertions.assertEquals(transfers + 1, statement.size());
+        // newest first
+        for (int i = 0; i < transfers; i++) {
+            HistoryEntry entry = statement.get(i);
+            Assertions.assertEquals(HistoryEntry.Kind.TRANSFER, entry.getKind());
+            Assertions.assertEquals(-(transfers - i), entry.getAmount());
+            Assertions.assertEquals(receiverFirst.getCardNumber(), entry.getCounterpart());
+        }
+        HistoryEntry income = statement.get(transfers);
+        Assertions.assertEquals(HistoryEntry.Kind.INCOME, income.getKind());
+        Assertions.assertEquals(1000, income.getAmount());
+        Assertions.assertNull(income.getCounterpart());
+
+        List<HistoryEntry> received = bankSystem.getStatement(receiverFirst.getCardNumber(), null, 100);
+        Assertions.assertEquals(transfers, received.size());
+        Assertions.assertEquals(transfers, received.get(0).getAmount());
+        Assertions.assertEquals(sender.getCardNumber(), received.get(0).getCounterpart());
+    }
+
+    @Test
+    public void exportAddsUpToReconciliation(@TempDir Path dir) throws IOException {
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiverFirst);
+        bankSystem.addCardToDB(receiverSecond);
+        bankSystem.addIncome(sender, 100);
+        bankSystem.addIncome(receiverFirst, 20);
+        hook.delayBeforeStart(1);
+        bankSystem.doTransfer(sender.getCardNumber(), receiverSecond.getCardNumber(), 30);
+        bankSystem.doTransfer(receiverFirst.getCardNumber(), sender.getCardNumber(), 5);
+        hook.delayBeforeStart(0);
+
+        BalanceReport report = bankSystem.reconcile();
+        Assertions.assertEquals(3, report.getAccounts());
+        Assertions.assertTrue(report.isReconciled(120));
+
+        Path csv = dir.resolve("balances.csv");
+        Assertions.assertEquals(report.toString(), bankSystem.exportBalances(csv, BalanceExporter.Format.CSV).toString());
+        List<String> lines = Files.readAllLines(csv);
+        Assertions.assertEquals(5, lines.size());
+        Assertions.assertTrue(lines.contains(receiverSecond.getCardNumber() + "," + receiverSecond.getId() + ",30"));
+        Assertions.assertEquals("# accounts 3 total 120", lines.get(4));
+
+        Path binary = dir.resolve("balances.bin");
+        bankSystem.exportBalances(binary, BalanceExporter.Format.BINARY);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(binary)).order(ByteOrder.LITTLE_ENDIAN);
+        Assertions.assertEquals(4 + 3 * BalanceExporter.BINARY_RECORD_SIZE + 24, buffer.remaining());
+        Assertions.assertEquals(BalanceExporter.BINARY_MAGIC, buffer.getInt());
+        long total = 0;
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(LuhnAlgo.isValid(buffer.getLong()));
+            buffer.getInt();
+            total += buffer.getInt();
+        }
+        Assertions.assertEquals(BalanceExporter.TRAILER, buffer.getLong());
+        Assertions.assertEquals(3, buffer.getLong());
+        Assertions.assertEquals(120, buffer.getLong());
+        Assertions.assertEquals(120, total);
+    }
+
+    /**
+     * Holds every transfer for a while after locking, so concurrent transfers really overlap.
+     * A thread can delay the start of its transfers instead, then it doesn't wait after locking.
+     */
+    private static class DelayingHook implements TransferHook {
+
+        private static final long LOCK_HOLD_MS = 100;
+
+        private final ThreadLocal<Long> delayBeforeStartMs = ThreadLocal.withInitial(() -> 0L);
+        volatile boolean failAfterDebit;
+
+        void delayBeforeStart(long ms) {
+            delayBeforeStartMs.set(ms);
+        }
+
+        @Override
+        public void beforeStart(Account sender, Account receiver) throws InterruptedException {
+            if (delayBeforeStartMs.get() > 0) {
+                Thread.sleep(delayBeforeStartMs.get());
+            }
+        }
+
+        @Override
+        public void afterLock(Account sender, Account receiver) throws InterruptedException {
+            if (delayBeforeStartMs.get() == 0) {
+                Thread.sleep(LOCK_HOLD_MS);
+            }
+        }
+
+        @Override
+        public void afterDebit(Account sender, Account receiver) {
+            if (failAfterDebit) {
+                // let's assume here is thrown some kind of exception
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
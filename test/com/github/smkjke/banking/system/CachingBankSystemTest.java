@@ -0,0 +1,48 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the BankSystem scenarios through the card cache.
+ */
+public class CachingBankSystemTest extends BankSystemTest {
+
+    private CachingAccountDao cache;
+
+    @Override
+    AccountDao createDao(TransferHook hook) {
+        cache = new CachingAccountDao(super.createDao(hook), 64);
+        return cache;
+    }
+
+    @Override
+    void clearStorage() {
+        super.clearStorage();
+        cache.clear();
+    }
+
+    @Test
+    public void lookupsAreCachedUntilDelete() {
+        BankSystem bankSystem = new BankSystem(cache);
+        Account account = new Account(42);
+        bankSystem.addCardToDB(account);
+
+        Assertions.assertTrue(bankSystem.tryToLogInAccount(account.getCardNumber(), account.getPinCode()));
+        final long misses = cache.getMisses();
+        final long hits = cache.getHits();
+        Assertions.assertTrue(bankSystem.isCardExistsAndValid(account.getCardNumber()));
+        Assertions.assertEquals(account.getId(), bankSystem.lookupAccount(account.getCardNumber()).getId());
+        Assertions.assertEquals(misses, cache.getMisses());
+        Assertions.assertEquals(hits + 2, cache.getHits());
+
+        bankSystem.addIncome(account, 7);
+        Assertions.assertEquals(7, bankSystem.getCurrentCardBalance(account.getCardNumber()));
+        bankSystem.lookupAccount(account.getCardNumber());
+        Assertions.assertEquals(7, bankSystem.getAccount(account.getCardNumber()).getBalance());
+
+        bankSystem.closeAccount(account.getId());
+        Assertions.assertNull(bankSystem.getAccount(account.getCardNumber()));
+        Assertions.assertFalse(bankSystem.tryToLogInAccount(account.getCardNumber(), account.getPinCode()));
+    }
+}
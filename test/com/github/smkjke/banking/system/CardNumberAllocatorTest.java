@@ -0,0 +1,62 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class CardNumberAllocatorTest {
+
+    @Test
+    public void permutationIsReversible() {
+        CardNumberAllocator allocator = new CardNumberAllocator();
+        long[] counters = {0, 1, 29_999, 30_000, 123_456_789, CardNumberAllocator.CAPACITY - 1};
+        for (long counter : counters) {
+            long value = allocator.permute(counter);
+            Assertions.assertTrue(value >= 0 && value < CardNumberAllocator.CAPACITY);
+            Assertions.assertEquals(counter, allocator.unpermute(value));
+        }
+        Assertions.assertNotEquals(allocator.permute(1), new CardNumberAllocator(1).permute(1));
+    }
+
+    @Test
+    public void numbersNeverRepeat() {
+        CardNumberAllocator allocator = new CardNumberAllocator();
+        Set<String> cards = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            String card = allocator.nextCardNumber();
+            Assertions.assertEquals(16, card.length());
+            Assertions.assertTrue(card.startsWith("400000"));
+            Assertions.assertTrue(LuhnAlgo.isValid(card));
+            Assertions.assertTrue(cards.add(card), card);
+        }
+    }
+
+    @Test
+    public void existingCardsAreSkipped() {
+        CardNumberAllocator previous = new CardNumberAllocator();
+        InMemoryAccountDao dao = new InMemoryAccountDao();
+        Set<String> existing = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            existing.add(previous.nextCardNumber());
+        }
+        // the 13th number of the previous run and some random cards
+        previous.nextCardNumber();
+        previous.nextCardNumber();
+        existing.add(previous.nextCardNumber());
+        for (int i = 0; i < 100; i++) {
+            existing.add(new Account(i).getCardNumber());
+        }
+        for (String card : existing) {
+            dao.create(new Account(1, card, "0000", 0));
+        }
+
+        CardNumberAllocator allocator = new CardNumberAllocator();
+        allocator.seed(dao);
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertFalse(existing.contains(allocator.nextCardNumber()));
+        }
+    }
+}
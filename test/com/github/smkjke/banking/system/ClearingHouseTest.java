@@ -0,0 +1,48 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClearingHouseTest {
+
+    @Test
+    public void failedSecondPassKeepsTheCommittedFirstPass() {
+        final InMemoryAccountDao store = new InMemoryAccountDao();
+        final AtomicInteger batches = new AtomicInteger();
+        final AccountDao dao = new ForwardingAccountDao(store) {
+            @Override
+            public List<TransferStatus> transferBatch(List<TransferRequest> requests) {
+                if (batches.incrementAndGet() == 2) {
+                    throw new IllegalStateException("Second pass failed");
+                }
+                return super.transferBatch(requests);
+            }
+        };
+        Account funded = new Account(1);
+        Account empty = new Account(2);
+        Account receiver = new Account(3);
+        dao.create(funded);
+        dao.create(empty);
+        dao.create(receiver);
+        dao.update(funded.getId(), 10);
+
+        ClearingHouse clearing = new ClearingHouse(dao, 2, 60_000);
+        try {
+            // refused first, then retried because the next transfer funds it
+            CompletableFuture<TransferStatus> retried = clearing.submit(empty.getCardNumber(), receiver.getCardNumber(), 5);
+            CompletableFuture<TransferStatus> funding = clearing.submit(funded.getCardNumber(), empty.getCardNumber(), 10);
+
+            Assertions.assertEquals(TransferStatus.FAILED, retried.join());
+            Assertions.assertEquals(TransferStatus.OK, funding.join());
+        } finally {
+            clearing.close();
+        }
+        Assertions.assertEquals(0, dao.get(funded.getCardNumber()).getBalance());
+        Assertions.assertEquals(10, dao.get(empty.getCardNumber()).getBalance());
+        Assertions.assertEquals(0, dao.get(receiver.getCardNumber()).getBalance());
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class ConnectionPoolTest {
+
+    private static final String URL = "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void connectionIsReusedAfterClose() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, 2, 0, 0, 4)) {
+            Connection first = pool.getConnection();
+            PreparedStatement statement = first.prepareStatement("SELECT 1");
+            statement.close();
+            first.close();
+
+            Assertions.assertTrue(first.isClosed());
+            Assertions.assertEquals(1, pool.getIdleCount());
+
+            try (Connection second = pool.getConnection()) {
+                Assertions.assertEquals(0, pool.getIdleCount());
+                Assertions.assertEquals(1, pool.getBorrowedCount());
+                Assertions.assertSame(statement, second.prepareStatement("SELECT 1"));
+            }
+        }
+    }
+
+    @Test
+    public void returnedConnectionCannotBeUsed() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, 1, 0, 0, 4)) {
+            Connection connection = pool.getConnection();
+            connection.close();
+            Assertions.assertThrows(SQLException.class, connection::createStatement);
+        }
+    }
+
+    @Test
+    public void openTransactionIsRolledBackOnReturn() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, 1, 0, 0, 4)) {
+            try (Connection connection = pool.getConnection()) {
+                connection.createStatement().execute("CREATE TABLE IF NOT EXISTS pool_rollback (id INT)");
+                connection.setAutoCommit(false);
+                connection.createStatement().execute("INSERT INTO pool_rollback VALUES (1)");
+            }
+            try (Connection connection = pool.getConnection()) {
+                Assertions.assertTrue(connection.getAutoCommit());
+                ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM pool_rollback");
+                rs.next();
+                Assertions.assertEquals(0, rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void sessionSettingsReachOpenConnections() throws SQLException {
+        try (ConnectionPool pool = new ConnectionPool(URL, 1, 0, 0, 4)) {
+            pool.getConnection().close();
+            pool.setSessionSql("SET LOCK_TIMEOUT 123");
+            try (Connection connection = pool.getConnection()) {
+                ResultSet rs = connection.createStatement().executeQuery("CALL LOCK_TIMEOUT()");
+                rs.next();
+                Assertions.assertEquals(123, rs.getInt(1));
+            }
+        }
+    }
+}
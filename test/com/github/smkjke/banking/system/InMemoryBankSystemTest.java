@@ -0,0 +1,21 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * Runs the BankSystem scenarios against the in-memory engine.
+ */
+public class InMemoryBankSystemTest extends BankSystemTest {
+
+    private InMemoryAccountDao dao;
+
+    @Override
+    AccountDao createDao(TransferHook hook) {
+        dao = new InMemoryAccountDao();
+        dao.setTransferHook(hook);
+        return dao;
+    }
+
+    @Override
+    void clearStorage() {
+        dao.clear();
+    }
+}
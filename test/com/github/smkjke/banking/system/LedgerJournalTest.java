@@ -0,0 +1,118 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class LedgerJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void balancesAreRestoredFromJournal() {
+        Account sender = new Account(1);
+        Account receiver = new Account(2);
+        Account closed = new Account(3);
+
+        InMemoryAccountDao dao = new InMemoryAccountDao(8, new LedgerJournal(directory, 1024, 0));
+        BankSystem bankSystem = new BankSystem(dao);
+        bankSystem.addCardToDB(sender);
+        bankSystem.addCardToDB(receiver);
+        bankSystem.addCardToDB(closed);
+        bankSystem.addIncome(sender, 100);
+        bankSystem.addIncome(closed, 5);
+        for (int i = 0; i < 20; i++) {
+            bankSystem.doTransfer(sender.getCardNumber(), receiver.getCardNumber(), 3);
+        }
+        bankSystem.transferBatch(Arrays.asList(
+                new TransferRequest(receiver.getCardNumber(), sender.getCardNumber(), 10),
+                new TransferRequest(sender.getCardNumber(), receiver.getCardNumber(), 1000)));
+        bankSystem.closeAccount(closed.getId());
+        dao.close();
+
+        InMemoryAccountDao restored = InMemoryAccountDao.open(directory);
+        Assertions.assertEquals(50, restored.get(sender.getCardNumber()).getBalance());
+        Assertions.assertEquals(50, restored.get(receiver.getCardNumber()).getBalance());
+        Assertions.assertTrue(PinHash.matches(sender.getPinCode(), restored.get(sender.getCardNumber()).getPinCode()));
+        Assertions.assertNull(restored.get(closed.getCardNumber()));
+        restored.close();
+    }
+
+    @Test
+    public void tornTailIsIgnoredAndOverwritten() throws IOException {
+        LedgerJournal journal = new LedgerJournal(directory);
+        journal.append(LedgerJournal.INCOME, 0, 0, 1, 10, null);
+        long last = journal.append(LedgerJournal.INCOME, 0, 0, 1, 20, null);
+        journal.close();
+
+        Path segment = Files.list(directory).collect(Collectors.toList()).get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // corrupt the amount of the last record
+            file.seek(LedgerJournal.RECORD_SIZE * 2 + 4);
+            file.writeInt(999);
+        }
+
+        journal = new LedgerJournal(directory);
+        Assertions.assertEquals(1, journal.replay((type, sequence, card, otherCard, ownerId, amount, pin) ->
+                Assertions.assertEquals(10, amount)));
+        Assertions.assertEquals(last, journal.append(LedgerJournal.INCOME, 0, 0, 1, 30, null));
+        Assertions.assertEquals(2, journal.replay((type, sequence, card, otherCard, ownerId, amount, pin) -> {
+        }));
+        journal.close();
+    }
+
+    @Test
+    public void recordsBehindATornOneAreNotReplayed() throws IOException {
+        LedgerJournal journal = new LedgerJournal(directory);
+        for (int i = 1; i <= 6; i++) {
+            journal.append(LedgerJournal.INCOME, 0, 0, 1, i * 10, null);
+        }
+        journal.close();
+
+        Path segment = Files.list(directory).collect(Collectors.toList()).get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // the third record is torn, the three behind it made it to disk
+            file.seek(LedgerJournal.RECORD_SIZE * 3 + 4);
+            file.writeInt(999);
+        }
+
+        journal = new LedgerJournal(directory);
+        Assertions.assertEquals(3, journal.append(LedgerJournal.INCOME, 0, 0, 1, 70, null));
+        journal.close();
+
+        journal = new LedgerJournal(directory);
+        final List<Integer> amounts = new ArrayList<>();
+        journal.replay((type, sequence, card, otherCard, ownerId, amount, pin) -> amounts.add(amount));
+        Assertions.assertEquals(Arrays.asList(10, 20, 70), amounts);
+        Assertions.assertEquals(4, journal.append(LedgerJournal.INCOME, 0, 0, 1, 80, null));
+        journal.close();
+    }
+
+    @Test
+    public void transferThatDoesNotReplayFailsTheOpen() {
+        LedgerJournal journal = new LedgerJournal(directory);
+        Account sender = new Account(1);
+        Account receiver = new Account(2);
+        journal.append(LedgerJournal.CREATE, CardNumbers.parse(sender.getCardNumber()), 0, 1, 0, "pin");
+        journal.append(LedgerJournal.CREATE, CardNumbers.parse(receiver.getCardNumber()), 0, 2, 0, "pin");
+        // the sender never had the money
+        journal.append(LedgerJournal.TRANSFER, CardNumbers.parse(sender.getCardNumber()),
+                CardNumbers.parse(receiver.getCardNumber()), 0, 5, null);
+        journal.close();
+
+        LedgerJournal reopened = new LedgerJournal(directory);
+        Assertions.assertThrows(IllegalStateException.class, () -> new InMemoryAccountDao(reopened));
+        reopened.close();
+    }
+}
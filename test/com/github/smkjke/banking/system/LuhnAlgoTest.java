@@ -0,0 +1,40 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LuhnAlgoTest {
+
+    @Test
+    public void knownNumbers() {
+        Assertions.assertTrue(LuhnAlgo.isValid("4000008449433403"));
+        Assertions.assertFalse(LuhnAlgo.isValid("4000008449433402"));
+        Assertions.assertEquals(3, LuhnAlgo.getChecksum("400000844943340"));
+        Assertions.assertEquals(3, LuhnAlgo.getChecksum(400000844943340L));
+        Assertions.assertTrue(LuhnAlgo.isValid(4000008449433403L));
+        Assertions.assertArrayEquals(new boolean[]{true, false},
+                LuhnAlgo.validate(new long[]{4000008449433403L, 4000008449433402L}));
+    }
+
+    @Test
+    public void longAndStringAgree() {
+        for (int i = 0; i < 1000; i++) {
+            Account account = new Account(i);
+            String card = account.getCardNumber();
+            Assertions.assertEquals(16, card.length());
+            Assertions.assertEquals(4, account.getPinCode().length());
+            Assertions.assertTrue(LuhnAlgo.isValid(card));
+            Assertions.assertTrue(LuhnAlgo.isValid(CardNumbers.parse(card)));
+            // longer than a long can hold
+            Assertions.assertTrue(LuhnAlgo.isValid("0000" + card));
+            Assertions.assertEquals(card.charAt(15) - '0', LuhnAlgo.getChecksum(card.substring(0, 15)));
+        }
+    }
+
+    @Test
+    public void notANumber() {
+        Assertions.assertThrows(NumberFormatException.class, () -> LuhnAlgo.isValid("4000abc"));
+        Assertions.assertEquals(CardNumbers.NONE, CardNumbers.parse("4000abc"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class MetricsTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            Assertions.assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+            if (bucket > 0) {
+                Assertions.assertTrue(value > LatencyHistogram.highestValueOf(bucket - 1));
+            }
+        }
+        Assertions.assertEquals(Long.MAX_VALUE,
+                LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+        Assertions.assertEquals(10_000, histogram.getCount());
+        Assertions.assertEquals(10_000_000, histogram.getMax());
+        Assertions.assertEquals(5_000_500, histogram.getMean(), 1);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double expected = percentile * 100_000;
+            double actual = histogram.getValueAtPercentile(percentile);
+            Assertions.assertTrue(actual >= expected && actual <= expected * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS),
+                    percentile + ": " + actual);
+        }
+        Assertions.assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.getCount());
+        Assertions.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void transfersAreCountedAndTimed() {
+        RecordingMetrics metrics = new RecordingMetrics();
+        BankSystem bankSystem = new BankSystem(new InMemoryAccountDao(), metrics);
+        Account first = new Account(1);
+        Account second = new Account(2);
+        bankSystem.addCardToDB(first);
+        bankSystem.addCardToDB(second);
+        bankSystem.addIncome(first, 10);
+
+        Assertions.assertEquals(TransferStatus.OK, bankSystem.doTransfer(first.getCardNumber(), second.getCardNumber(), 10));
+        Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS,
+                bankSystem.doTransfer(first.getCardNumber(), second.getCardNumber(), 10));
+
+        Assertions.assertEquals(1, metrics.getCount("transfer.ok"));
+        Assertions.assertEquals(1, metrics.getCount("transfer.insufficient_funds"));
+        Assertions.assertEquals(2, metrics.histogram("dao.transfer").getCount());
+        Assertions.assertEquals(2, metrics.histogram("dao.create").getCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        metrics.dump(new PrintStream(out));
+        Assertions.assertTrue(out.toString().contains("dao.transfer"));
+    }
+
+    @Test
+    public void daoStepsAreTimed() {
+        RecordingMetrics metrics = new RecordingMetrics();
+        AccountDaoImpl dao = new AccountDaoImpl("metricscard");
+        try {
+            dao.setMetrics(metrics);
+            Account first = new Account(1);
+            Account second = new Account(2);
+            dao.create(first);
+            dao.create(second);
+            dao.update(first.getId(), 10);
+
+            Assertions.assertEquals(TransferStatus.OK, dao.transfer(first, second, 10));
+            Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS, dao.transfer(first, second, 10));
+
+            Assertions.assertEquals(2, metrics.histogram("transfer.lockWait").getCount());
+            Assertions.assertEquals(2, metrics.histogram("transfer.debit").getCount());
+            Assertions.assertEquals(1, metrics.histogram("transfer.commit").getCount());
+            Assertions.assertEquals(1, metrics.getCount("transfer.rolled_back"));
+            Assertions.assertTrue(metrics.histogram("connection.acquire").getCount() >= 5);
+        } finally {
+            dao.dropTable();
+            dao.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the same scenarios with optimistic transfers.
+ */
+public class OptimisticBankSystemTest extends BankSystemTest {
+
+    private final RecordingMetrics metrics = new RecordingMetrics();
+    private AccountDaoImpl dao;
+
+    @Override
+    AccountDao createDao(TransferHook hook) {
+        dao = (AccountDaoImpl) super.createDao(hook);
+        dao.setTransferStrategy(TransferStrategy.OPTIMISTIC);
+        dao.setMetrics(metrics);
+        return dao;
+    }
+
+    @Test
+    public void transferToTheSameCardDoesNotConflict() {
+        Account account = new Account(5);
+        BankSystem bankSystem = new BankSystem(dao);
+        bankSystem.addCardToDB(account);
+        bankSystem.addIncome(account, 10);
+
+        final long conflicts = metrics.getCount("transfer.optimistic_conflict");
+        final long fallbacks = metrics.getCount("transfer.optimistic_fallback");
+        Assertions.assertEquals(TransferStatus.OK,
+                bankSystem.doTransfer(account.getCardNumber(), account.getCardNumber(), 4));
+        Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS,
+                bankSystem.doTransfer(account.getCardNumber(), account.getCardNumber(), 11));
+        Assertions.assertEquals(10, bankSystem.getCurrentCardBalance(account.getCardNumber()));
+        Assertions.assertEquals(conflicts, metrics.getCount("transfer.optimistic_conflict"));
+        Assertions.assertEquals(fallbacks, metrics.getCount("transfer.optimistic_fallback"));
+    }
+}
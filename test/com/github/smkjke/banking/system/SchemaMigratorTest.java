@@ -0,0 +1,52 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class SchemaMigratorTest {
+
+    private static final String URL = "jdbc:h2:mem:migrationtest;DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void legacyDatabaseIsUpgraded() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(URL);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE card (ownerId INTEGER, number TEXT, pin TEXT, balance INTEGER DEFAULT 0)");
+            stmt.execute("INSERT INTO card VALUES (7, '4000001234567899', '1234', 42)");
+        }
+
+        AccountDaoImpl dao = new AccountDaoImpl(new ConnectionPool(URL));
+        try (Connection conn = DriverManager.getConnection(URL);
+             Statement stmt = conn.createStatement()) {
+            Assertions.assertEquals(AccountDaoImpl.MIGRATIONS.latestVersion(), AccountDaoImpl.MIGRATIONS.currentVersion(conn));
+            Assertions.assertTrue(AccountDaoImpl.MIGRATIONS.pending(conn).isEmpty());
+
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES " +
+                    "WHERE TABLE_NAME = 'CARD' AND INDEX_NAME IN ('CARD_NUMBER_IDX', 'CARD_OWNER_IDX')");
+            rs.next();
+            Assertions.assertEquals(2, rs.getInt(1));
+
+            Assertions.assertThrows(SQLException.class, () ->
+                    stmt.execute("INSERT INTO card VALUES (8, '4000001234567899', '0000', 0)"));
+        }
+
+        Account account = dao.get("4000001234567899");
+        Assertions.assertEquals(7, account.getId());
+        Assertions.assertEquals(42, account.getBalance());
+        Assertions.assertTrue(PinHash.isHashed(account.getPinCode()));
+        Assertions.assertTrue(PinHash.matches("1234", account.getPinCode()));
+
+        // already at the latest version, nothing to do on the next start
+        try (Connection conn = DriverManager.getConnection(URL)) {
+            Assertions.assertEquals(0, AccountDaoImpl.MIGRATIONS.migrate(conn));
+        }
+        dao.close();
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SessionManagerTest {
+
+    private long now;
+    private final SessionManager sessions = new SessionManager(1000, () -> now);
+
+    @Test
+    public void sessionExpiresWhenUnused() {
+        String token = sessions.open(new Account(3, "4000001000000000", "1234", 50));
+        Account account = sessions.get(token);
+        Assertions.assertEquals(3, account.getId());
+        Assertions.assertEquals("4000001000000000", account.getCardNumber());
+        Assertions.assertNull(account.getPinCode());
+
+        // every use extends the session
+        now += TimeUnit.MILLISECONDS.toNanos(900);
+        Assertions.assertNotNull(sessions.get(token));
+        now += TimeUnit.MILLISECONDS.toNanos(900);
+        Assertions.assertNotNull(sessions.get(token));
+
+        now += TimeUnit.MILLISECONDS.toNanos(1000);
+        Assertions.assertNull(sessions.get(token));
+        Assertions.assertEquals(0, sessions.size());
+    }
+
+    @Test
+    public void tokensAreUniqueAndClosedPerOwner() {
+        String first = sessions.open(new Account(1, "4000001000000000", "1234", 0));
+        String second = sessions.open(new Account(1, "4000001000000000", "1234", 0));
+        String other = sessions.open(new Account(2, "4000001000000018", "1234", 0));
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertNull(sessions.get("unknown"));
+        Assertions.assertNull(sessions.get(null));
+
+        sessions.closeAll(1);
+        Assertions.assertNull(sessions.get(first));
+        Assertions.assertNull(sessions.get(second));
+        Assertions.assertNotNull(sessions.get(other));
+    }
+
+    @Test
+    public void pinHashesAreSaltedAndChecked() {
+        String first = PinHash.hash("1234");
+        String second = PinHash.hash("1234");
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertTrue(PinHash.matches("1234", first));
+        Assertions.assertTrue(PinHash.matches("1234", second));
+        Assertions.assertFalse(PinHash.matches("1235", first));
+        Assertions.assertFalse(PinHash.matches("1234", "sha256$broken"));
+        // pins stored before hashing
+        Assertions.assertTrue(PinHash.matches("1234", "1234"));
+        Assertions.assertFalse(PinHash.matches("1234", "12345"));
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class ShardedAccountDaoTest {
+
+    private AccountDaoImpl[] shards;
+    private ShardedAccountDao dao;
+    private Account first;
+    private Account second;
+
+    @BeforeEach
+    public void createDao() {
+        shards = new AccountDaoImpl[]{new AccountDaoImpl("shardcard_0"), new AccountDaoImpl("shardcard_1")};
+        dao = new ShardedAccountDao(shards);
+        // two cards on different shards
+        first = new Account(1);
+        int id = 2;
+        do {
+            second = new Account(id++);
+        } while (dao.shardOf(second.getCardNumber()) == dao.shardOf(first.getCardNumber()));
+        dao.create(first);
+        dao.create(second);
+        dao.update(first.getId(), 100);
+    }
+
+    @AfterEach
+    public void dropDao() {
+        dao.dropTable();
+        dao.close();
+    }
+
+    private int balance(Account account) {
+        return dao.get(account.getCardNumber()).getBalance();
+    }
+
+    private AccountDaoImpl shardOf(Account account) {
+        return shards[dao.shardOf(account.getCardNumber())];
+    }
+
+    @Test
+    public void transfersBetweenShards() {
+        Assertions.assertEquals(TransferStatus.OK, dao.transfer(first, second, 60));
+        Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS, dao.transfer(first, second, 60));
+        Assertions.assertEquals(TransferStatus.CARD_NOT_FOUND, dao.transfer(first, new Account(999_999), 1));
+
+        Assertions.assertEquals(40, balance(first));
+        Assertions.assertEquals(60, balance(second));
+        Assertions.assertEquals(0, dao.getPendingTransfers());
+    }
+
+    @Test
+    public void intentTableIsCreatedByTheShardedDaoOnly() throws SQLException {
+        AccountDaoImpl plain = new AccountDaoImpl(StorageProfile.memory(), "plainshard");
+        try {
+            Assertions.assertFalse(hasIntentTable(plain));
+            new ShardedAccountDao(plain);
+            Assertions.assertTrue(hasIntentTable(plain));
+        } finally {
+            plain.close();
+        }
+    }
+
+    private static boolean hasIntentTable(AccountDaoImpl shard) throws SQLException {
+        try (Connection connection = shard.connect();
+             Statement statement = connection.createStatement()) {
+            ResultSet rs = statement.executeQuery(
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'TRANSFER_INTENT'");
+            rs.next();
+            return rs.getInt(1) == 1;
+        }
+    }
+
+    @Test
+    public void failedCreditRefundsTheSender() {
+        dao.setTransferHook(new TransferHook() {
+            @Override
+            public void afterDebit(Account sender, Account receiver) {
+                throw new IllegalStateException("crash between the shards");
+            }
+        });
+
+        Assertions.assertEquals(TransferStatus.FAILED, dao.transfer(first, second, 30));
+
+        Assertions.assertEquals(100, balance(first));
+        Assertions.assertEquals(0, balance(second));
+        Assertions.assertEquals(0, dao.getPendingTransfers());
+
+        List<HistoryEntry> history = dao.history(first.getCardNumber(), null, 10);
+        Assertions.assertEquals(HistoryEntry.Kind.REFUND, history.get(0).getKind());
+        Assertions.assertEquals(30, history.get(0).getAmount());
+        Assertions.assertEquals(-30, history.get(1).getAmount());
+        Assertions.assertTrue(dao.history(second.getCardNumber(), null, 10).isEmpty());
+    }
+
+    @Test
+    public void recoveryRefundsTransfersWithoutCredit() throws Exception {
+        Assertions.assertEquals(TransferStatus.OK,
+                dao.prepareDebit(shardOf(first), "lost", first.getCardNumber(), second.getCardNumber(), 30));
+        Assertions.assertEquals(70, balance(first));
+        Assertions.assertEquals(1, dao.getPendingTransfers());
+
+        // restart
+        dao = new ShardedAccountDao(shards);
+
+        Assertions.assertEquals(100, balance(first));
+        Assertions.assertEquals(0, balance(second));
+        Assertions.assertEquals(0, dao.getPendingTransfers());
+    }
+
+    @Test
+    public void recoveryCompletesCreditedTransfers() throws Exception {
+        dao.prepareDebit(shardOf(first), "credited", first.getCardNumber(), second.getCardNumber(), 30);
+        Assertions.assertTrue(dao.applyCredit(shardOf(second), "credited", first.getCardNumber(), second.getCardNumber(), 30));
+        // the credit happens once, however often it is retried
+        Assertions.assertTrue(dao.applyCredit(shardOf(second), "credited", first.getCardNumber(), second.getCardNumber(), 30));
+
+        dao = new ShardedAccountDao(shards);
+
+        Assertions.assertEquals(70, balance(first));
+        Assertions.assertEquals(30, balance(second));
+        Assertions.assertEquals(0, dao.getPendingTransfers());
+    }
+
+    @Test
+    public void snapshotsLeaveUnfinishedTransfersOut() throws Exception {
+        List<String> cards = Arrays.asList(first.getCardNumber(), second.getCardNumber());
+        dao.prepareDebit(shardOf(first), "open", first.getCardNumber(), second.getCardNumber(), 30);
+        Assertions.assertEquals(100, dao.balancesOf(cards).get(first.getCardNumber(), -1));
+        Assertions.assertEquals(0, dao.getAll(cards).get(second.getCardNumber()).getBalance());
+
+        Assertions.assertTrue(dao.applyCredit(shardOf(second), "open", first.getCardNumber(), second.getCardNumber(), 30));
+        Assertions.assertEquals(100, dao.getAll(cards).get(first.getCardNumber()).getBalance());
+        Assertions.assertEquals(0, dao.balancesOf(cards).get(second.getCardNumber(), -1));
+
+        dao.recover();
+        Assertions.assertEquals(70, dao.balancesOf(cards).get(first.getCardNumber(), -1));
+        Assertions.assertEquals(30, dao.balancesOf(cards).get(second.getCardNumber(), -1));
+    }
+
+    @Test
+    public void snapshotsAddUpWhileTransfersRun() throws Exception {
+        dao.update(second.getId(), 100);
+        List<String> cards = Arrays.asList(first.getCardNumber(), second.getCardNumber());
+
+        CompletableFuture<Void> transfers = CompletableFuture.runAsync(() -> {
+            try {
+                TransferStress.transferBothWays(dao, first, second);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        do {
+            Assertions.assertEquals(200, dao.balancesOf(cards).getTotal());
+        } while (!transfers.isDone());
+        transfers.get();
+        Assertions.assertEquals(200, dao.balancesOf(cards).getTotal());
+    }
+
+    @Test
+    public void concurrentTransfersKeepTheTotal() throws Exception {
+        dao.update(second.getId(), 100);
+
+        TransferStress.transferBothWays(dao, first, second);
+
+        final long[] total = new long[1];
+        dao.forEachAccount(account -> total[0] += account.getBalance());
+        Assertions.assertEquals(200, total[0]);
+        Assertions.assertEquals(0, dao.getPendingTransfers());
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.smkjke.banking.system;
+
+/**
+ * Runs the BankSystem scenarios over two shards, so some transfers cross shards.
+ */
+public class ShardedBankSystemTest extends BankSystemTest {
+
+    private ShardedAccountDao sharded;
+
+    @Override
+    AccountDao createDao(TransferHook hook) {
+        sharded = new ShardedAccountDao("testcard_sharded", 2);
+        sharded.setTransferHook(hook);
+        return sharded;
+    }
+
+    @Override
+    void clearStorage() {
+        sharded.dropTable();
+        sharded.createIfNotExists();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+public class StorageProfileTest {
+
+    @Test
+    public void urlsFollowTheProfile() {
+        Assertions.assertEquals("jdbc:h2:/tmp/task_card/bank", StorageProfile.file().url("bank"));
+        Assertions.assertEquals(AccountDaoImpl.url("bank"), StorageProfile.file().url("bank"));
+
+        Properties properties = new Properties();
+        properties.setProperty("profile", "file");
+        properties.setProperty("directory", "/data/bank");
+        properties.setProperty("cacheSize", "65536");
+        properties.setProperty("writeDelay", "0");
+        Assertions.assertEquals("jdbc:h2:/data/bank/bank;CACHE_SIZE=65536;WRITE_DELAY=0",
+                StorageProfile.fromProperties(properties).url("bank"));
+
+        properties.setProperty("profile", "Server");
+        properties.setProperty("port", "9123");
+        Assertions.assertEquals("jdbc:h2:tcp://localhost:9123//data/bank/bank;CACHE_SIZE=65536;WRITE_DELAY=0",
+                StorageProfile.fromProperties(properties).url("bank"));
+
+        properties.setProperty("profile", "memory");
+        Assertions.assertEquals("jdbc:h2:mem:bank;DB_CLOSE_DELAY=-1", StorageProfile.fromProperties(properties).url("bank"));
+    }
+
+    @Test
+    public void memoryProfileWarmsUp() {
+        StorageProfile profile = StorageProfile.memory();
+        profile.setPoolSize(2);
+        AccountDaoImpl dao = new AccountDaoImpl(profile, "profiletest");
+        dao.create(new Account(1));
+        dao.create(new Account(2));
+        Assertions.assertEquals(2, dao.warmUp());
+
+        // the schema is kept, a second dao on the same database migrates nothing
+        AccountDaoImpl reopened = new AccountDaoImpl(profile, "profiletest");
+        Assertions.assertEquals(2, reopened.warmUp());
+        reopened.close();
+        dao.dropTable();
+        dao.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.smkjke.banking.system;
+
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class TransferProcedureTest {
+
+    private AccountDaoImpl dao;
+    private final Account first = new Account(1);
+    private final Account second = new Account(2);
+
+    @BeforeEach
+    public void createDao() {
+        dao = new AccountDaoImpl("procedurecard");
+        dao.setTransferStrategy(TransferStrategy.STORED_PROCEDURE);
+        dao.create(first);
+        dao.create(second);
+    }
+
+    @AfterEach
+    public void dropDao() {
+        dao.dropTable();
+        dao.close();
+    }
+
+    @Test
+    public void statusesComeBackFromTheDatabase() {
+        dao.update(first.getId(), 10);
+
+        Assertions.assertEquals(TransferStatus.OK, dao.transfer(first, second, 7));
+        Assertions.assertEquals(TransferStatus.INSUFFICIENT_FUNDS, dao.transfer(first, second, 7));
+        Assertions.assertEquals(TransferStatus.CARD_NOT_FOUND, dao.transfer(first, new Account(3), 1));
+        Assertions.assertEquals(TransferStatus.OK, dao.transfer(second, first, 2));
+
+        Assertions.assertEquals(5, dao.get(first.getCardNumber()).getBalance());
+        Assertions.assertEquals(5, dao.get(second.getCardNumber()).getBalance());
+
+        List<HistoryEntry> history = dao.history(second.getCardNumber(), null, 10);
+        Assertions.assertEquals(2, history.size());
+        Assertions.assertEquals(-2, history.get(0).getAmount());
+        Assertions.assertEquals(7, history.get(1).getAmount());
+    }
+
+    @Test
+    public void concurrentTransfersKeepTheTotal() throws Exception {
+        dao.update(first.getId(), 500);
+        dao.update(second.getId(), 500);
+
+        TransferStress.transferBothWays(dao, first, second);
+
+        int total = dao.get(first.getCardNumber()).getBalance() + dao.get(second.getCardNumber()).getBalance();
+        Assertions.assertEquals(1000, total);
+    }
+}
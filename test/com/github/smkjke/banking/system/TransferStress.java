@@ -0,0 +1,44 @@
+package com.github.smkjke.banking.system;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Transfers back and forth between two cards from many threads, for the tests of single daos.
+ */
+final class TransferStress {
+
+    private static final int THREADS = 8;
+    private static final int TRANSFERS = 400;
+    private static final int AMOUNT = 3;
+
+    private TransferStress() {
+    }
+
+    /**
+     * Runs the transfers, every second one backwards, and checks that none of them failed.
+     * The total of both cards must stay what it was, the caller checks that its own way.
+     */
+    static void transferBothWays(AccountDao dao, Account first, Account second) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<TransferStatus>> results = new ArrayList<>();
+            for (int i = 0; i < TRANSFERS; i++) {
+                final boolean forward = i % 2 == 0;
+                results.add(executor.submit(() -> forward
+                        ? dao.transfer(first, second, AMOUNT)
+                        : dao.transfer(second, first, AMOUNT)));
+            }
+            for (Future<TransferStatus> result : results) {
+                Assertions.assertNotEquals(TransferStatus.FAILED, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}